@@ -0,0 +1,145 @@
+/*
+ * Steer'n'Detect
+ * 
+ * Zsuzsanna Puspoki and Daniel Sage, Biomedical Imaging Group
+ * Ecole Polytechnique Federale de Lausanne (EPFL), Switzerland
+ * 
+ * Information: http://bigwww.epfl.ch/algorithms/steer_n_detect/
+ * 
+ * Conditions of use: You are free to use this software for research or
+ * educational purposes. In addition, we expect you to include adequate
+ * citations and acknowledgments whenever you present or publish results 
+ * that are based on it.
+ * 
+ * Reference: Z. Puspoki et al. submitted to Bioinformatics 2021.
+ */
+
+/*
+ * Copyright 2016-2021 Biomedical Imaging Group at the EPFL.
+ * 
+ * Steer'n'Detect is free software: you can redistribute it and/or modify it under 
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * Steer'n'Detect is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * Steer'n'Detect. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package steerabledetector.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ij.ImagePlus;
+import steerabledetector.detector.Detection;
+import steerabledetector.detector.LocalMaxFinder;
+import steerabledetector.detector.NonMaximumSuppression;
+import steerabledetector.detector.Parameters;
+import steerabledetector.detector.ResultMap;
+import steerabledetector.gui.Data;
+import steerabledetector.image2d.ImageCartesian;
+
+/**
+ * Stages after the steered analysis, on the map of a synthetic image: local
+ * maxima, trimming of all the maxima to nDetections, and the CSV of the
+ * detections (Data.saveCVS and Data.loadCVS).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DetectionBenchmark {
+
+	@Param({ "256", "512", "1024" })
+	public int						size;
+
+	@Param({ "100", "10000" })
+	public int						nDetections;
+
+	@Param({ "0", "10" })
+	public double					overlap;
+
+	private ResultMap				map;
+	private ArrayList<Detection>	candidates;
+	private Data					data;
+	private File					csv;
+
+	@Setup
+	public void setup() throws IOException {
+		ImagePlus	imp		= Synthetic.image(size, size);
+		Parameters	params	= new Parameters();
+		map = ResultMap.wrap(Synthetic.model(params.nHarmonics).steeredAnalysis(null, ImageCartesian.getImage(imp), params.nHarmonics, params));
+		map.normalize();
+		map.toDegrees();
+		LocalMaxFinder finder = new LocalMaxFinder();
+		int n = finder.find(map, 0);
+		candidates = new ArrayList<Detection>(n);
+		for (int k = 0; k < n; k++) {
+			int x = finder.getX(k);
+			int y = finder.getY(k);
+			candidates.add(new Detection(k, x, y, map.getAngle(x, y), finder.getValue(k), 64));
+		}
+		data = new Data(imp, params);
+		data.setDetections(NonMaximumSuppression.trim(copy(), nDetections, overlap), new ArrayList<Detection>());
+		csv = File.createTempFile("detections", ".csv");
+		data.saveCVS(csv.getAbsolutePath());
+	}
+
+	@TearDown
+	public void tearDown() {
+		csv.delete();
+	}
+
+	private ArrayList<Detection> copy() {
+		ArrayList<Detection> list = new ArrayList<Detection>(candidates.size());
+		for (Detection d : candidates)
+			list.add(new Detection(d.id, d.x, d.y, d.angle, d.amplitude, d.size));
+		return list;
+	}
+
+	@Benchmark
+	public int localMax() {
+		return new LocalMaxFinder().find(map, 0);
+	}
+
+	/**
+	 * Includes the copy of the candidates, the trimming sorts and renumbers
+	 * them.
+	 */
+	@Benchmark
+	public ArrayList<Detection> trim() {
+		return NonMaximumSuppression.trim(copy(), nDetections, overlap);
+	}
+
+	@Benchmark
+	public void saveCVS() {
+		data.saveCVS(csv.getAbsolutePath());
+	}
+
+	@Benchmark
+	public boolean loadCVS() {
+		return data.loadCVS(csv.getAbsolutePath());
+	}
+}
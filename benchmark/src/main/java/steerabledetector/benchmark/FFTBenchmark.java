@@ -0,0 +1,88 @@
+/*
+ * Steer'n'Detect
+ * 
+ * Zsuzsanna Puspoki and Daniel Sage, Biomedical Imaging Group
+ * Ecole Polytechnique Federale de Lausanne (EPFL), Switzerland
+ * 
+ * Information: http://bigwww.epfl.ch/algorithms/steer_n_detect/
+ * 
+ * Conditions of use: You are free to use this software for research or
+ * educational purposes. In addition, we expect you to include adequate
+ * citations and acknowledgments whenever you present or publish results 
+ * that are based on it.
+ * 
+ * Reference: Z. Puspoki et al. submitted to Bioinformatics 2021.
+ */
+
+/*
+ * Copyright 2016-2021 Biomedical Imaging Group at the EPFL.
+ * 
+ * Steer'n'Detect is free software: you can redistribute it and/or modify it under 
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * Steer'n'Detect is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * Steer'n'Detect. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package steerabledetector.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import steerabledetector.image2d.ImageCartesian;
+
+/**
+ * Forward and inverse FFT of a synthetic image.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FFTBenchmark {
+
+	@Param({ "256", "512", "1024" })
+	public int				size;
+
+	private ImageCartesian	image;
+	private ImageCartesian	spectrum;
+
+	@Setup
+	public void setup() {
+		image		= ImageCartesian.getImage(Synthetic.image(size, size));
+		spectrum	= image.FFT();
+	}
+
+	@Benchmark
+	public ImageCartesian fft() {
+		return image.FFT();
+	}
+
+	@Benchmark
+	public ImageCartesian realFFT() {
+		return image.realFFT();
+	}
+
+	@Benchmark
+	public ImageCartesian inverseFFT() {
+		return spectrum.inverseFFT();
+	}
+}
@@ -0,0 +1,79 @@
+/*
+ * Steer'n'Detect
+ * 
+ * Zsuzsanna Puspoki and Daniel Sage, Biomedical Imaging Group
+ * Ecole Polytechnique Federale de Lausanne (EPFL), Switzerland
+ * 
+ * Information: http://bigwww.epfl.ch/algorithms/steer_n_detect/
+ * 
+ * Conditions of use: You are free to use this software for research or
+ * educational purposes. In addition, we expect you to include adequate
+ * citations and acknowledgments whenever you present or publish results 
+ * that are based on it.
+ * 
+ * Reference: Z. Puspoki et al. submitted to Bioinformatics 2021.
+ */
+
+/*
+ * Copyright 2016-2021 Biomedical Imaging Group at the EPFL.
+ * 
+ * Steer'n'Detect is free software: you can redistribute it and/or modify it under 
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * Steer'n'Detect is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * Steer'n'Detect. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package steerabledetector.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import steerabledetector.filter.SIPM;
+import steerabledetector.filter.Spline;
+import steerabledetector.image2d.ImageCartesian;
+
+/**
+ * Construction of the SIPM model of the template, with the search of the
+ * radial sampling step at the order nHarmonics (SIPM.getMethod).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ModelBenchmark {
+
+	@Param({ "3", "7", "11" })
+	public int				nHarmonics;
+
+	private ImageCartesian	template;
+
+	@Setup
+	public void setup() {
+		template = Synthetic.template();
+	}
+
+	@Benchmark
+	public SIPM getMethod() {
+		return SIPM.getMethod(null, null, template, new Spline(), template, nHarmonics);
+	}
+}
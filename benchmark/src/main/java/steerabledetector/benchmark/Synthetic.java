@@ -0,0 +1,96 @@
+/*
+ * Steer'n'Detect
+ * 
+ * Zsuzsanna Puspoki and Daniel Sage, Biomedical Imaging Group
+ * Ecole Polytechnique Federale de Lausanne (EPFL), Switzerland
+ * 
+ * Information: http://bigwww.epfl.ch/algorithms/steer_n_detect/
+ * 
+ * Conditions of use: You are free to use this software for research or
+ * educational purposes. In addition, we expect you to include adequate
+ * citations and acknowledgments whenever you present or publish results 
+ * that are based on it.
+ * 
+ * Reference: Z. Puspoki et al. submitted to Bioinformatics 2021.
+ */
+
+/*
+ * Copyright 2016-2021 Biomedical Imaging Group at the EPFL.
+ * 
+ * Steer'n'Detect is free software: you can redistribute it and/or modify it under 
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * Steer'n'Detect is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * Steer'n'Detect. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package steerabledetector.benchmark;
+
+import java.util.Random;
+
+import ij.ImagePlus;
+import ij.process.FloatProcessor;
+import steerabledetector.filter.SIPM;
+import steerabledetector.filter.Spline;
+import steerabledetector.image2d.ImageCartesian;
+
+/**
+ * Synthetic inputs of the benchmarks, as the generator of Steer_Detect.main:
+ * patterns on a grid of 50 pixels with orientations varying along the
+ * image, and a Gaussian noise of standard deviation 0.1 (fixed seed).
+ */
+public class Synthetic {
+
+	public static ImagePlus image(int nx, int ny) {
+		FloatProcessor	ip		= new FloatProcessor(nx, ny);
+		Random			random	= new Random(1);
+		for (int y = 50; y <= ny - 50; y += 50)
+			for (int x = 50; x <= nx - 50; x += 50)
+				draw(x, y, (x - nx / 2) / 3.0 + y, ip);
+		float[] pixels = (float[]) ip.getPixels();
+		for (int k = 0; k < pixels.length; k++)
+			pixels[k] += 0.1 * random.nextGaussian();
+		return new ImagePlus("Synthetic", ip);
+	}
+
+	/**
+	 * Template of 64x64 pixels, zero mean and apodized as in TemplatePanel.
+	 */
+	public static ImageCartesian template() {
+		FloatProcessor ip = new FloatProcessor(64, 64);
+		draw(32, 32, 0, ip);
+		float[] pixels = (float[]) ip.getPixels();
+		double mean = 0;
+		for (float p : pixels)
+			mean += p;
+		mean /= pixels.length;
+		for (int k = 0; k < pixels.length; k++)
+			pixels[k] -= mean;
+		ImageCartesian template = ImageCartesian.getImage(new ImagePlus("Template", ip));
+		template.apodizationHann();
+		return template;
+	}
+
+	public static SIPM model(int nHarmonics) {
+		ImageCartesian template = template();
+		return SIPM.getMethod(null, null, template, new Spline(), template, nHarmonics);
+	}
+
+	private static void draw(int x, int y, double angle, FloatProcessor ip) {
+		double cosa = Math.cos(Math.toRadians(angle));
+		double sina = Math.sin(Math.toRadians(angle));
+		for (int i = -30; i <= 30; i++)
+			for (int j = -30; j <= 30; j++) {
+				double u = cosa * i + sina * j;
+				double v = -sina * i + cosa * j;
+				v = v > 0 ? v : v * 4;
+				ip.putPixelValue(x + i, y + j, Math.exp(-u * u / 32 - v * v / 256));
+			}
+	}
+}
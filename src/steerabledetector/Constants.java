@@ -37,6 +37,7 @@ public class Constants {
 	public static String urlHelp = "http://bigwww.epfl.ch/algorithms/steer_n_detect/";
 	public static String copyright = "(c) 2021 BIG EPFL - Version 1.0.2";
 	public static String settings = IJ.getDirectory("plugins") + "Steer_n_Detect.txt";	
+	public static String models = IJ.getDirectory("plugins") == null ? "" : IJ.getDirectory("plugins") + "Steer_n_Detect_models";
 	public static String name = "Steer 'n' Detect";	
 	public static String version = "1.0.2";	
 }
@@ -0,0 +1,235 @@
+/*
+ * Steer'n'Detect
+ * 
+ * Zsuzsanna Puspoki and Daniel Sage, Biomedical Imaging Group
+ * Ecole Polytechnique Federale de Lausanne (EPFL), Switzerland
+ * 
+ * Information: http://bigwww.epfl.ch/algorithms/steer_n_detect/
+ * 
+ * Conditions of use: You are free to use this software for research or
+ * educational purposes. In addition, we expect you to include adequate
+ * citations and acknowledgments whenever you present or publish results 
+ * that are based on it.
+ * 
+ * Reference: Z. Puspoki et al. submitted to Bioinformatics 2021.
+ */
+
+/*
+ * Copyright 2016-2021 Biomedical Imaging Group at the EPFL.
+ * 
+ * Steer'n'Detect is free software: you can redistribute it and/or modify it under 
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * Steer'n'Detect is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * Steer'n'Detect. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package steerabledetector;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+
+/**
+ * Wall time, CPU time and allocated bytes of the stages of a detection.
+ * 
+ * A stage is measured by a Probe on the thread that runs it: start() and
+ * stop() on the same thread. The CPU time and the allocated bytes are those
+ * of this thread; a stage run by several threads at the same time (filter
+ * bank, search of the angles) is recorded once per thread and its times
+ * are summed, so its wall time can exceed the elapsed time. The stages
+ * are kept in the order of their first record. An instance is thread-safe
+ * and can aggregate several runs (add).
+ * 
+ * The static start() and stop() accept a null instrumentation and a null
+ * probe, for the runs without instrumentation.
+ */
+public class Instrumentation {
+
+	private static final ThreadMXBean			threads		= ManagementFactory.getThreadMXBean();
+
+	private final LinkedHashMap<String, Stage>	stages		= new LinkedHashMap<String, Stage>();
+	private int									runs		= 0;
+
+	public static Probe start(Instrumentation instrumentation, String stage) {
+		return instrumentation == null ? null : instrumentation.start(stage);
+	}
+
+	public static void stop(Probe probe) {
+		if (probe != null)
+			probe.stop();
+	}
+
+	public Probe start(String stage) {
+		return new Probe(stage);
+	}
+
+	public synchronized void record(String name, long wall, long cpu, long bytes) {
+		Stage stage = stages.get(name);
+		if (stage == null) {
+			stage = new Stage(name);
+			stages.put(name, stage);
+		}
+		stage.count++;
+		stage.wall += wall;
+		stage.cpu += cpu;
+		stage.bytes += bytes;
+	}
+
+	/**
+	 * Counts a run, for the aggregation.
+	 */
+	public synchronized void endRun() {
+		runs++;
+	}
+
+	public synchronized int getRuns() {
+		return runs;
+	}
+
+	/**
+	 * Adds the stages and the runs of another instrumentation.
+	 */
+	public void add(Instrumentation other) {
+		ArrayList<Stage> list = other.getStages();
+		int n = other.getRuns();
+		synchronized (this) {
+			for (Stage s : list) {
+				Stage stage = stages.get(s.name);
+				if (stage == null) {
+					stage = new Stage(s.name);
+					stages.put(s.name, stage);
+				}
+				stage.count += s.count;
+				stage.wall += s.wall;
+				stage.cpu += s.cpu;
+				stage.bytes += s.bytes;
+			}
+			runs += n;
+		}
+	}
+
+	public synchronized ArrayList<Stage> getStages() {
+		ArrayList<Stage> list = new ArrayList<Stage>();
+		for (Stage stage : stages.values())
+			list.add(stage.copy());
+		return list;
+	}
+
+	public String toCSV() {
+		String s = "Stage,Count,Wall (ms),CPU (ms),Allocated (MB)\n";
+		for (Stage stage : getStages())
+			s += "\"" + stage.name + "\"," + stage.count + "," + ms(stage.wall) + "," + ms(stage.cpu) + "," + mb(stage.bytes) + "\n";
+		return s;
+	}
+
+	public String toJSON() {
+		ArrayList<Stage> list = getStages();
+		String s = "{\n  \"runs\": " + getRuns() + ",\n  \"stages\": [\n";
+		for (int i = 0; i < list.size(); i++) {
+			Stage stage = list.get(i);
+			s += "    { \"stage\": \"" + stage.name.replace("\"", "\\\"") + "\", \"count\": " + stage.count;
+			s += ", \"wallMs\": " + ms(stage.wall) + ", \"cpuMs\": " + ms(stage.cpu) + ", \"allocatedBytes\": " + stage.bytes + " }";
+			s += (i < list.size() - 1 ? ",\n" : "\n");
+		}
+		return s + "  ]\n}\n";
+	}
+
+	/**
+	 * Writes the stages in JSON if the name ends with .json, in CSV
+	 * otherwise.
+	 */
+	public boolean write(File file) {
+		try {
+			BufferedWriter buffer = new BufferedWriter(new FileWriter(file));
+			buffer.write(file.getName().toLowerCase().endsWith(".json") ? toJSON() : toCSV());
+			buffer.close();
+			return true;
+		}
+		catch (IOException ex) {
+			System.out.println("" + ex);
+			return false;
+		}
+	}
+
+	/**
+	 * One line per stage, for the journal.
+	 */
+	public ArrayList<String> toLines() {
+		ArrayList<String> lines = new ArrayList<String>();
+		for (Stage stage : getStages())
+			lines.add(stage.name + " (" + stage.count + "x): wall " + Tools.time(stage.wall) + ", CPU " + Tools.time(stage.cpu) + ", " + mb(stage.bytes) + " MB");
+		return lines;
+	}
+
+	private static String ms(long ns) {
+		return String.format(Locale.US, "%.3f", ns * 1e-6);
+	}
+
+	private static String mb(long bytes) {
+		return String.format(Locale.US, "%.3f", bytes / (1024.0 * 1024.0));
+	}
+
+	private static long getCpuTime() {
+		return threads.isCurrentThreadCpuTimeSupported() ? threads.getCurrentThreadCpuTime() : 0;
+	}
+
+	private static long getAllocatedBytes() {
+		if (threads instanceof com.sun.management.ThreadMXBean)
+			return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+		return 0;
+	}
+
+	public static class Stage {
+
+		public final String	name;
+		public long			count	= 0;
+		public long			wall	= 0;
+		public long			cpu		= 0;
+		public long			bytes	= 0;
+
+		public Stage(String name) {
+			this.name = name;
+		}
+
+		private Stage copy() {
+			Stage stage = new Stage(name);
+			stage.count	= count;
+			stage.wall	= wall;
+			stage.cpu	= cpu;
+			stage.bytes	= bytes;
+			return stage;
+		}
+	}
+
+	public class Probe {
+
+		private final String	stage;
+		private final long		wall;
+		private final long		cpu;
+		private final long		bytes;
+
+		private Probe(String stage) {
+			this.stage	= stage;
+			this.wall	= System.nanoTime();
+			this.cpu	= getCpuTime();
+			this.bytes	= getAllocatedBytes();
+		}
+
+		public void stop() {
+			record(stage, System.nanoTime() - wall, getCpuTime() - cpu, getAllocatedBytes() - bytes);
+		}
+	}
+}
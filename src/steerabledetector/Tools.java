@@ -32,8 +32,36 @@
 
 package steerabledetector;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
 public class Tools {
 
+	/**
+	 * Results of the tasks of an invokeAll(), in the order of the tasks. The
+	 * first task which failed is rethrown: its unchecked exception or error
+	 * as is, a checked exception wrapped in a RuntimeException.
+	 */
+	public static <T> ArrayList<T> getResults(List<Future<T>> futures) throws InterruptedException {
+		ArrayList<T> results = new ArrayList<T>(futures.size());
+		for (Future<T> future : futures) {
+			try {
+				results.add(future.get());
+			}
+			catch (ExecutionException ex) {
+				Throwable cause = ex.getCause();
+				if (cause instanceof RuntimeException)
+					throw (RuntimeException) cause;
+				if (cause instanceof Error)
+					throw (Error) cause;
+				throw new RuntimeException(cause);
+			}
+		}
+		return results;
+	}
+
 	public static String time(double ns) {
 		if (ns < 3000.0)
 			return String.format("%3.2f ns", ns);
@@ -0,0 +1,258 @@
+/*
+ * Steer'n'Detect
+ * 
+ * Zsuzsanna Puspoki and Daniel Sage, Biomedical Imaging Group
+ * Ecole Polytechnique Federale de Lausanne (EPFL), Switzerland
+ * 
+ * Information: http://bigwww.epfl.ch/algorithms/steer_n_detect/
+ * 
+ * Conditions of use: You are free to use this software for research or
+ * educational purposes. In addition, we expect you to include adequate
+ * citations and acknowledgments whenever you present or publish results 
+ * that are based on it.
+ * 
+ * Reference: Z. Puspoki et al. submitted to Bioinformatics 2021.
+ */
+
+/*
+ * Copyright 2016-2021 Biomedical Imaging Group at the EPFL.
+ * 
+ * Steer'n'Detect is free software: you can redistribute it and/or modify it under 
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * Steer'n'Detect is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * Steer'n'Detect. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package steerabledetector.detector;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.Macro;
+import steerabledetector.Instrumentation;
+import steerabledetector.Instrumentation.Probe;
+import steerabledetector.Tools;
+import steerabledetector.filter.FilterBankCache;
+import steerabledetector.filter.SIPM;
+import steerabledetector.filter.SIPMCache;
+import steerabledetector.gui.Data;
+
+/**
+ * Detection on a list of images without interface, with a model built once.
+ * 
+ * The images are processed concurrently, at most parallelism at the same
+ * time, and the threads of the analysis are shared between them. For each
+ * image, the detections are written in a CSV file of the same name, in the
+ * format of the "SteerDetect Run" macro (Data.saveCVS). An image that cannot
+ * be read or analyzed is reported and skipped. With params.stack, the slices
+ * of a stack are analyzed by StackDetector and the CSV has a slice column.
+ * With params.profile, the stages of each image are written next to its
+ * CSV and their sum over the batch in the profile file.
+ * 
+ * From the command line: BatchDetector model.sipm input [output] [options],
+ * with input a directory or an image, and the options as in the macro
+ * ("nharmonics=7 threads=8 parallel=2 ...").
+ */
+public class BatchDetector {
+
+	public static final String[]	EXTENSIONS	= { ".tif", ".tiff", ".png", ".jpg", ".jpeg", ".gif", ".bmp", ".pgm" };
+
+	private SIPM					model;
+	private Parameters				params;
+	private int						parallelism	= 1;
+	private File					output		= null;
+	private volatile boolean		stop		= false;
+
+	public BatchDetector(SIPM model, Parameters params) {
+		this.model	= model;
+		this.params	= params;
+	}
+
+	/**
+	 * Maximum number of images in progress at the same time.
+	 */
+	public void setParallelism(int parallelism) {
+		this.parallelism = Math.max(1, parallelism);
+	}
+
+	/**
+	 * Directory of the CSV files, the directory of each image if null.
+	 */
+	public void setOutputDirectory(File output) {
+		this.output = output;
+	}
+
+	public void stop() {
+		stop = true;
+		model.stop();
+	}
+
+	public static List<File> listImages(File directory) {
+		ArrayList<File> images = new ArrayList<File>();
+		File[] files = directory.listFiles();
+		if (files == null)
+			return images;
+		Arrays.sort(files);
+		for (File file : files)
+			if (file.isFile() && isImage(file))
+				images.add(file);
+		return images;
+	}
+
+	private static boolean isImage(File file) {
+		String name = file.getName().toLowerCase();
+		for (String extension : EXTENSIONS)
+			if (name.endsWith(extension))
+				return true;
+		return false;
+	}
+
+	/**
+	 * Processes the images of the directory, or the file itself; returns the
+	 * number of CSV files written.
+	 */
+	public int run(File input) {
+		return run(input.isDirectory() ? listImages(input) : Arrays.asList(input));
+	}
+
+	public int run(List<File> files) {
+		stop = false;
+		model.start();
+		final int						concurrent	= Math.min(parallelism, Math.max(1, files.size()));
+		final int						threads		= Math.max(1, params.getNumberOfThreads() / concurrent);
+		final AtomicInteger				written		= new AtomicInteger(0);
+		final Instrumentation			total		= params.profile.equals("") ? null : new Instrumentation();
+		// the images of the same size share the filters of the batch
+		final FilterBankCache			cache		= params.filterBankCache == null ? new FilterBankCache(params.filterCache) : params.filterBankCache;
+		ArrayList<Callable<Boolean>>	tasks		= new ArrayList<Callable<Boolean>>();
+		for (final File file : files) {
+			tasks.add(new Callable<Boolean>() {
+				@Override
+				public Boolean call() {
+					if (stop)
+						return false;
+					if (process(file, threads, total, cache))
+						written.incrementAndGet();
+					return true;
+				}
+			});
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(concurrent);
+		try {
+			Tools.getResults(executor.invokeAll(tasks));
+		}
+		catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			stop();
+		}
+		finally {
+			executor.shutdown();
+		}
+		if (total != null)
+			total.write(new File(params.profile));
+		return written.get();
+	}
+
+	/**
+	 * With a profile file, each image is instrumented, its stages are
+	 * written next to its CSV and added to total.
+	 */
+	private boolean process(File file, int threads, Instrumentation total, FilterBankCache cache) {
+		double chrono = System.nanoTime();
+		ImagePlus imp = IJ.openImage(file.getAbsolutePath());
+		if (imp == null) {
+			System.out.println("Unable to read the image " + file);
+			return false;
+		}
+		if (imp.getWidth() % 2 != 0 || imp.getHeight() % 2 != 0) {
+			System.out.println("The image size should be a multiple of 2: " + file);
+			return false;
+		}
+		int type = imp.getType();
+		if (type != ImagePlus.GRAY8 && type != ImagePlus.GRAY16 && type != ImagePlus.GRAY32) {
+			System.out.println("Only process 8-bit, 16-bit or 32-bit image: " + file);
+			return false;
+		}
+		Parameters p = params.duplicate();
+		p.nThreads = threads;
+		p.instrumentation = total == null ? null : new Instrumentation();
+		p.filterBankCache = cache;
+		boolean stack = p.stack && imp.getStackSize() > 1;
+		ArrayList<Detection> detections;
+		try {
+			if (stack) {
+				StackDetector slices = new StackDetector(imp, model, p, null, null);
+				slices.run();
+				detections = slices.getDetections();
+			}
+			else
+				detections = new SteerableDetector(imp, model, p, null, null).detect();
+		}
+		catch (RuntimeException ex) {
+			System.out.println("Unable to analyze the image " + file + ": " + ex);
+			return false;
+		}
+		// an interrupted scan leaves the interruption on the thread, no CSV
+		if (stop || Thread.currentThread().isInterrupted())
+			return false;
+		File csv = getOutputFile(file);
+		Probe probe = Instrumentation.start(p.instrumentation, "CSV write");
+		if (!Data.saveCVS(csv, detections, stack))
+			return false;
+		Instrumentation.stop(probe);
+		if (total != null) {
+			String extension = params.profile.toLowerCase().endsWith(".json") ? ".json" : ".csv";
+			p.instrumentation.write(new File(csv.getParentFile(), csv.getName().replaceAll("\\.csv$", "") + "-profile" + extension));
+			total.add(p.instrumentation);
+		}
+		System.out.println(file.getName() + ": " + detections.size() + " detections in " + (System.nanoTime() - chrono) / 1000000.0 + " ms");
+		return true;
+	}
+
+	public File getOutputFile(File image) {
+		String	name	= image.getName();
+		int		dot		= name.lastIndexOf('.');
+		String	base	= dot > 0 ? name.substring(0, dot) : name;
+		return new File(output == null ? image.getAbsoluteFile().getParentFile() : output, base + ".csv");
+	}
+
+	public static void main(String[] args) {
+		if (args.length < 2) {
+			System.out.println("Usage: BatchDetector model.sipm input [output] [options]");
+			return;
+		}
+		// the macro options end with a space
+		String		options	= (args.length > 3 ? args[3] : (args.length > 2 && args[2].contains("=") ? args[2] : "")) + " ";
+		String		path	= args.length > 2 && !args[2].contains("=") ? args[2] : null;
+		Parameters	params	= new Parameters();
+		params.fromMacro(options);
+		SIPM model = SIPMCache.load(new File(args[0]), params);
+		if (model == null)
+			return;
+		params.patternSizeX	= model.getTemplateSize();
+		params.patternSizeY	= model.getTemplateSize();
+		BatchDetector batch = new BatchDetector(model, params);
+		batch.setParallelism((int) Double.parseDouble(Macro.getValue(options, "parallel", "1")));
+		if (path != null) {
+			batch.setOutputDirectory(new File(path));
+			new File(path).mkdirs();
+		}
+		int n = batch.run(new File(args[1]));
+		System.out.println(n + " images processed");
+	}
+}
@@ -43,6 +43,7 @@ public class Detection {
 	public double	angle;
 	public double	amplitude;
 	public double	size;
+	public int		slice	= 0;
 	private String	type	= "Auto";
 
 	public Detection(int id, double x, double y, double angle, double amplitude, double size, String type) {
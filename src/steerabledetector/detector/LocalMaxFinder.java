@@ -0,0 +1,277 @@
+/*
+ * Steer'n'Detect
+ * 
+ * Zsuzsanna Puspoki and Daniel Sage, Biomedical Imaging Group
+ * Ecole Polytechnique Federale de Lausanne (EPFL), Switzerland
+ * 
+ * Information: http://bigwww.epfl.ch/algorithms/steer_n_detect/
+ * 
+ * Conditions of use: You are free to use this software for research or
+ * educational purposes. In addition, we expect you to include adequate
+ * citations and acknowledgments whenever you present or publish results 
+ * that are based on it.
+ * 
+ * Reference: Z. Puspoki et al. submitted to Bioinformatics 2021.
+ */
+
+/*
+ * Copyright 2016-2021 Biomedical Imaging Group at the EPFL.
+ * 
+ * Steer'n'Detect is free software: you can redistribute it and/or modify it under 
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * Steer'n'Detect is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * Steer'n'Detect. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package steerabledetector.detector;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import steerabledetector.Tools;
+
+/**
+ * Local maxima of a ResultMap, in the order of a scan x then y.
+ * 
+ * A pixel is a local maximum if it is positive, at least threshold and not
+ * smaller than any pixel of the square neighborhood of half-width radius
+ * (radius 1 is the 3x3 neighborhood, radius 2 the 5x5), clipped to the map.
+ * The pixels closer than margin (at least 1) to the border are skipped.
+ * 
+ * The rows are split in bands scanned by the threads on copies of the rows
+ * of the neighborhood; each band writes the maxima in its own primitive
+ * buffer, as x * height + y, and the buffers are concatenated and sorted to
+ * give the order of the scan x then y.
+ */
+public class LocalMaxFinder {
+
+	private int			radius		= 1;
+	private double		threshold	= 0;
+	private int			nThreads	= 1;
+	private boolean		stopped		= false;
+
+	private int			size		= 0;
+	private int[]		xs			= new int[0];
+	private int[]		ys			= new int[0];
+	private double[]	values		= new double[0];
+
+	public void setRadius(int radius) {
+		this.radius = Math.max(1, radius);
+	}
+
+	public void setThreshold(double threshold) {
+		this.threshold = threshold;
+	}
+
+	public void setThreads(int nThreads) {
+		this.nThreads = Math.max(1, nThreads);
+	}
+
+	/**
+	 * Radius of params.localMaxRadius, or half of the overlap if it is 0.
+	 */
+	public static int getRadius(Parameters params) {
+		if (params.localMaxRadius > 0)
+			return params.localMaxRadius;
+		return Math.max(1, (int) (params.overlap / 2));
+	}
+
+	/**
+	 * Number of local maxima; 0 if the scan has been interrupted, the maxima
+	 * of an incomplete scan are not kept (see isStopped).
+	 */
+	public int find(final ResultMap map, int margin) {
+		stopped = false;
+		final int	nx		= map.getWidth();
+		final int	ny		= map.getHeight();
+		final int	m		= Math.max(1, margin);
+		int			rows	= Math.max(0, ny - 2 * m);
+		int			nbands	= Math.max(1, Math.min(nThreads, rows / 16));
+		final Band	bands[]	= new Band[nbands];
+		for (int b = 0; b < nbands; b++)
+			bands[b] = new Band(map, m + (int) ((long) rows * b / nbands), m + (int) ((long) rows * (b + 1) / nbands));
+
+		if (nbands == 1)
+			bands[0].scan(m, nx - m);
+		else {
+			ArrayList<Callable<Boolean>> tasks = new ArrayList<Callable<Boolean>>();
+			for (final Band band : bands)
+				tasks.add(new Callable<Boolean>() {
+					@Override
+					public Boolean call() {
+						band.scan(m, nx - m);
+						return true;
+					}
+				});
+			ExecutorService executor = Executors.newFixedThreadPool(nbands);
+			try {
+				Tools.getResults(executor.invokeAll(tasks));
+			}
+			catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				stopped = true;
+			}
+			finally {
+				executor.shutdown();
+			}
+		}
+		if (stopped) {
+			size	= 0;
+			xs		= new int[0];
+			ys		= new int[0];
+			values	= new double[0];
+			return 0;
+		}
+
+		size = 0;
+		for (Band band : bands)
+			size += band.size;
+		long keys[] = new long[size];
+		int k = 0;
+		for (Band band : bands) {
+			System.arraycopy(band.keys, 0, keys, k, band.size);
+			k += band.size;
+		}
+		Arrays.sort(keys);
+		xs		= new int[size];
+		ys		= new int[size];
+		values	= new double[size];
+		for (k = 0; k < size; k++) {
+			xs[k]		= (int) (keys[k] / ny);
+			ys[k]		= (int) (keys[k] % ny);
+			values[k]	= map.getAmplitude(xs[k], ys[k]);
+		}
+		return size;
+	}
+
+	public boolean isStopped() {
+		return stopped;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int getX(int k) {
+		return xs[k];
+	}
+
+	public int getY(int k) {
+		return ys[k];
+	}
+
+	public double getValue(int k) {
+		return values[k];
+	}
+
+	/**
+	 * Maxima as {x, y, value}, as the former list of SteerableDetector.
+	 */
+	public ArrayList<double[]> toList() {
+		ArrayList<double[]> list = new ArrayList<double[]>(size);
+		for (int k = 0; k < size; k++)
+			list.add(new double[] { xs[k], ys[k], values[k] });
+		return list;
+	}
+
+	private class Band {
+
+		private ResultMap	map;
+		private int			y1;
+		private int			y2;
+		private int			size	= 0;
+		private long[]		keys	= new long[64];
+		private double[][]	rows;
+		private int[]		loaded;
+
+		public Band(ResultMap map, int y1, int y2) {
+			this.map	= map;
+			this.y1		= y1;
+			this.y2		= y2;
+			rows		= new double[2 * radius + 1][map.getWidth()];
+			loaded		= new int[2 * radius + 1];
+			Arrays.fill(loaded, -1);
+		}
+
+		/**
+		 * Row y from a ring of 2 radius + 1 rows.
+		 */
+		private double[] row(int y) {
+			int slot = y % rows.length;
+			if (loaded[slot] != y) {
+				map.getAmplitudeRow(y, rows[slot]);
+				loaded[slot] = y;
+			}
+			return rows[slot];
+		}
+
+		public void scan(int x1, int x2) {
+			if (radius == 1)
+				scan3x3(x1, x2);
+			else
+				scanSquare(x1, x2);
+		}
+
+		private void scan3x3(int x1, int x2) {
+			for (int j = y1; j < y2; ++j) {
+				double[] prev = row(j - 1);
+				double[] next = row(j + 1);
+				double[] line = row(j);
+				for (int i = x1; i < x2; ++i) {
+					double test = line[i];
+					if (test > 0 && test >= threshold)
+						if (prev[i - 1] <= test && prev[i] <= test && prev[i + 1] <= test)
+							if (next[i - 1] <= test && next[i] <= test && next[i + 1] <= test)
+								if (line[i - 1] <= test && line[i + 1] <= test)
+									add(i, j);
+				}
+			}
+		}
+
+		private void scanSquare(int x1, int x2) {
+			int nx = map.getWidth();
+			int ny = map.getHeight();
+			for (int j = y1; j < y2; ++j) {
+				int j1 = Math.max(0, j - radius);
+				int j2 = Math.min(ny - 1, j + radius);
+				for (int b = j1; b <= j2; b++)
+					row(b);
+				double[] line = row(j);
+				for (int i = x1; i < x2; ++i) {
+					double test = line[i];
+					if (test <= 0 || test < threshold)
+						continue;
+					int i1 = Math.max(0, i - radius);
+					int i2 = Math.min(nx - 1, i + radius);
+					boolean max = true;
+					for (int b = j1; b <= j2 && max; b++) {
+						double[] neighbors = rows[b % rows.length];
+						for (int a = i1; a <= i2; a++)
+							if (!(neighbors[a] <= test)) {
+								max = false;
+								break;
+							}
+					}
+					if (max)
+						add(i, j);
+				}
+			}
+		}
+
+		private void add(int x, int y) {
+			if (size == keys.length)
+				keys = Arrays.copyOf(keys, 2 * size);
+			keys[size++] = (long) x * map.getHeight() + y;
+		}
+	}
+}
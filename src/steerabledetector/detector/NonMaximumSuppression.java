@@ -0,0 +1,129 @@
+/*
+ * Steer'n'Detect
+ * 
+ * Zsuzsanna Puspoki and Daniel Sage, Biomedical Imaging Group
+ * Ecole Polytechnique Federale de Lausanne (EPFL), Switzerland
+ * 
+ * Information: http://bigwww.epfl.ch/algorithms/steer_n_detect/
+ * 
+ * Conditions of use: You are free to use this software for research or
+ * educational purposes. In addition, we expect you to include adequate
+ * citations and acknowledgments whenever you present or publish results 
+ * that are based on it.
+ * 
+ * Reference: Z. Puspoki et al. submitted to Bioinformatics 2021.
+ */
+
+/*
+ * Copyright 2016-2021 Biomedical Imaging Group at the EPFL.
+ * 
+ * Steer'n'Detect is free software: you can redistribute it and/or modify it under 
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * Steer'n'Detect is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * Steer'n'Detect. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package steerabledetector.detector;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.PriorityQueue;
+
+/**
+ * Greedy non-maximum suppression of the detections: the candidates are
+ * visited by decreasing amplitude (ties in the order of the scan, i.e. by
+ * increasing id) and a candidate is kept if no kept detection is closer
+ * than proximity, up to maxNumber detections.
+ * 
+ * The tie-break by id differs from the comparator of the versions before
+ * (amplitude only, never 0), which broke its contract on equal amplitudes:
+ * the sort then failed or ordered the ties otherwise. On equal amplitudes,
+ * the kept detections, their ids and the order of the CSV can differ from
+ * these versions.
+ * 
+ * The kept detections are stored in a uniform grid of cells of size
+ * proximity, so a candidate is only compared to the detections of the 3x3
+ * neighboring cells. When few detections are wanted, the candidates are
+ * taken from a heap instead of sorting all of them.
+ */
+public class NonMaximumSuppression {
+
+	/** Candidates per wanted detection above which a heap is used. */
+	private static final int				HEAP_RATIO	= 8;
+
+	public static final Comparator<Detection>	ORDER		= new Comparator<Detection>() {
+		@Override
+		public int compare(Detection spot1, Detection spot2) {
+			if (spot1.amplitude != spot2.amplitude)
+				return spot1.amplitude < spot2.amplitude ? 1 : -1;
+			return spot1.id < spot2.id ? -1 : (spot1.id == spot2.id ? 0 : 1);
+		}
+	};
+
+	/**
+	 * Kept detections, renumbered from 0 in the order of acceptance.
+	 */
+	public static ArrayList<Detection> trim(ArrayList<Detection> detections, int maxNumber, double proximity) {
+		ArrayList<Detection> goods = new ArrayList<Detection>();
+		if (maxNumber <= 0 || detections.isEmpty())
+			return goods;
+
+		PriorityQueue<Detection> heap = null;
+		if ((long) maxNumber * HEAP_RATIO < detections.size())
+			heap = new PriorityQueue<Detection>(detections.size(), ORDER);
+		if (heap != null)
+			heap.addAll(detections);
+		else
+			Collections.sort(detections, ORDER);
+
+		// no detection is closer than a proximity <= 0
+		HashMap<Long, ArrayList<Detection>> grid = proximity > 0 ? new HashMap<Long, ArrayList<Detection>>() : null;
+		int n = detections.size();
+		for (int i = 0; i < n; i++) {
+			Detection candidate = heap != null ? heap.poll() : detections.get(i);
+			if (grid != null) {
+				long cx = (long) Math.floor(candidate.x / proximity);
+				long cy = (long) Math.floor(candidate.y / proximity);
+				if (isSuppressed(grid, cx, cy, candidate, proximity))
+					continue;
+				Long key = key(cx, cy);
+				ArrayList<Detection> cell = grid.get(key);
+				if (cell == null) {
+					cell = new ArrayList<Detection>(2);
+					grid.put(key, cell);
+				}
+				cell.add(candidate);
+			}
+			candidate.id = goods.size();
+			goods.add(candidate);
+			if (goods.size() >= maxNumber)
+				break;
+		}
+		return goods;
+	}
+
+	private static boolean isSuppressed(HashMap<Long, ArrayList<Detection>> grid, long cx, long cy, Detection candidate, double proximity) {
+		for (long i = cx - 1; i <= cx + 1; i++)
+			for (long j = cy - 1; j <= cy + 1; j++) {
+				ArrayList<Detection> cell = grid.get(key(i, j));
+				if (cell != null)
+					for (Detection good : cell)
+						if (good.distance(candidate) < proximity)
+							return true;
+			}
+		return false;
+	}
+
+	private static Long key(long cx, long cy) {
+		return (cx << 32) ^ (cy & 0xFFFFFFFFL);
+	}
+}
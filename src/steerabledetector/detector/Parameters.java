@@ -36,9 +36,13 @@ import java.util.Calendar;
 
 import ij.ImagePlus;
 import ij.Macro;
+import steerabledetector.Constants;
+import steerabledetector.Instrumentation;
+import steerabledetector.filter.FilterBankCache;
 import steerabledetector.gui.components.HTMLPane;
+import steerabledetector.image2d.Workspace;
 
-public class Parameters {
+public class Parameters implements Cloneable {
 
 	public double		overlap			= 0;
 	public int			margin			= 0;
@@ -53,6 +57,31 @@ public class Parameters {
 	public boolean		coarseToFine		= true;
 	public double		referenceOrientation = 0;
 	public String		filename			= "";
+	public boolean		multithread			= true;
+	public int			nThreads			= 0;
+	public AngleEstimation	angleEstimation	= AngleEstimation.GRID;
+	public boolean		symmetric			= false;
+	public boolean		singlePrecision		= false;
+	public boolean		tiled				= false;
+	public int			tileMemory			= 0;
+	public boolean		streaming			= false;
+	public boolean		radialTable			= false;
+	public int			filterCache			= 0;
+	public boolean		stack				= false;
+	public int			firstSlice			= 1;
+	public int			lastSlice			= 0;
+	public int			localMaxRadius		= 1;
+	public double		minConfidence		= 0;
+	public boolean		refine				= false;
+	public boolean		fused				= false;
+	public int			scales				= 1;
+	public double		scaleMin			= 0.5;
+	public double		scaleMax			= 2;
+	public boolean		modelCache			= false;
+	public String		profile				= "";
+	public Instrumentation instrumentation	= null;
+	public Workspace	workspace			= null;
+	public FilterBankCache filterBankCache	= null;
 	
 	public void setAutomaticValues() {
 		overlap = 0;
@@ -74,6 +103,28 @@ public class Parameters {
 		nHarmonics = (int)Double.parseDouble(Macro.getValue(options, "nharmonics", ""+ nHarmonics));
 		gamma = (int)Double.parseDouble(Macro.getValue(options, "gamma", ""+ gamma));
 		filename = Macro.getValue(options, "output", ""+ filename);
+		multithread = Boolean.parseBoolean(Macro.getValue(options, "multithread", "" + multithread));
+		nThreads = (int)Double.parseDouble(Macro.getValue(options, "threads", "" + nThreads));
+		angleEstimation = AngleEstimation.valueOf(Macro.getValue(options, "estimation", "" + angleEstimation).toUpperCase());
+		symmetric = Boolean.parseBoolean(Macro.getValue(options, "symmetric", "" + symmetric));
+		singlePrecision = Boolean.parseBoolean(Macro.getValue(options, "singleprecision", "" + singlePrecision));
+		tiled = Boolean.parseBoolean(Macro.getValue(options, "tiled", "" + tiled));
+		tileMemory = (int)Double.parseDouble(Macro.getValue(options, "tilememory", "" + tileMemory));
+		streaming = Boolean.parseBoolean(Macro.getValue(options, "streaming", "" + streaming));
+		radialTable = Boolean.parseBoolean(Macro.getValue(options, "radialtable", "" + radialTable));
+		filterCache = (int)Double.parseDouble(Macro.getValue(options, "filtercache", "" + filterCache));
+		stack = Boolean.parseBoolean(Macro.getValue(options, "stack", "" + stack));
+		firstSlice = (int)Double.parseDouble(Macro.getValue(options, "first", "" + firstSlice));
+		lastSlice = (int)Double.parseDouble(Macro.getValue(options, "last", "" + lastSlice));
+		localMaxRadius = (int)Double.parseDouble(Macro.getValue(options, "localmaxradius", "" + localMaxRadius));
+		minConfidence = Double.parseDouble(Macro.getValue(options, "minconfidence", "" + minConfidence));
+		refine = Boolean.parseBoolean(Macro.getValue(options, "refine", "" + refine));
+		fused = Boolean.parseBoolean(Macro.getValue(options, "fused", "" + fused));
+		scales = (int)Double.parseDouble(Macro.getValue(options, "scales", "" + scales));
+		scaleMin = Double.parseDouble(Macro.getValue(options, "scalemin", "" + scaleMin));
+		scaleMax = Double.parseDouble(Macro.getValue(options, "scalemax", "" + scaleMax));
+		modelCache = Boolean.parseBoolean(Macro.getValue(options, "modelcache", "" + modelCache));
+		profile = Macro.getValue(options, "profile", profile);
 	}
 	
 	public String toMacro() {
@@ -86,6 +137,27 @@ public class Parameters {
 		options += "deltaAlpha=" + deltaAlpha + " ";
 		options += "nharmonics=" + nHarmonics + " ";
 		options += "gamma=" + gamma + " ";
+		options += "multithread=" + multithread + " ";
+		options += "threads=" + nThreads + " ";
+		options += "estimation=" + angleEstimation + " ";
+		options += "symmetric=" + symmetric + " ";
+		options += "singleprecision=" + singlePrecision + " ";
+		options += "tiled=" + tiled + " ";
+		options += "tilememory=" + tileMemory + " ";
+		options += "streaming=" + streaming + " ";
+		options += "radialtable=" + radialTable + " ";
+		options += "filtercache=" + filterCache + " ";
+		options += "stack=" + stack + " ";
+		options += "first=" + firstSlice + " ";
+		options += "last=" + lastSlice + " ";
+		options += "localmaxradius=" + localMaxRadius + " ";
+		options += "minconfidence=" + minConfidence + " ";
+		options += "refine=" + refine + " ";
+		options += "fused=" + fused + " ";
+		options += "scales=" + scales + " ";
+		options += "scalemin=" + scaleMin + " ";
+		options += "scalemax=" + scaleMax + " ";
+		options += "modelcache=" + modelCache + " ";
 		return options;
 	}
 	
@@ -100,8 +172,56 @@ public class Parameters {
 		info.append("p", "Min angle: " + minAlpha);
 		info.append("p", "Max angle: " + maxAlpha);
 		info.append("p", "Accuracy (delta): " + deltaAlpha);
+		info.append("p", "Angle estimation: " + angleEstimation);
 		info.append("p", "Gamma (shaping filter): " + gamma);
 		info.append("p", "Coarse to fine: " + coarseToFine);
+		info.append("p", "Sub-pixel refinement: " + refine);
+		info.append("p", "Scales: " + (isMultiScale() ? scales + " from " + scaleMin + " to " + scaleMax : "template size only"));
+		info.append("p", "Local max neighborhood: " + (2 * LocalMaxFinder.getRadius(this) + 1) + "x" + (2 * LocalMaxFinder.getRadius(this) + 1) + ", min confidence " + minConfidence);
+		info.append("p", "Symmetric filter bank: " + symmetric);
+		info.append("p", "Single precision: " + singlePrecision);
+		info.append("p", "Fused filter bank and search: " + fused);
+		info.append("p", "Radial look-up table: " + radialTable);
+		info.append("p", "Model cache: " + (modelCache ? Constants.models : "off"));
+		info.append("p", "Filter bank cache: " + (filterCache > 0 ? filterCache + " MB" : "off"));
+		info.append("p", "Stack: " + stack + (stack ? " (slices " + firstSlice + " to " + (lastSlice > 0 ? "" + lastSlice : "end") + ")" : ""));
+		info.append("p", "Tiled: " + tiled + ", streaming: " + streaming + (tiled || streaming ? " (" + (tileMemory > 0 ? tileMemory + " MB" : "auto") + ")" : ""));
+		info.append("p", "Multithread: " + multithread + (multithread ? " (" + getNumberOfThreads() + " threads)" : ""));
+	}
+
+	public Parameters duplicate() {
+		try {
+			return (Parameters) clone();
+		}
+		catch (CloneNotSupportedException ex) {
+			throw new IllegalStateException(ex);
+		}
+	}
+
+	public boolean isMultiScale() {
+		return scales > 1;
+	}
+
+	/**
+	 * Scales of the analysis relative to the template, in a geometric
+	 * progression from scaleMin to scaleMax; 1 without the multi-scale mode.
+	 */
+	public double[] getScales() {
+		if (!isMultiScale())
+			return new double[] { 1.0 };
+		double	min		= Math.max(1e-3, Math.min(scaleMin, scaleMax));
+		double	max		= Math.max(1e-3, Math.max(scaleMin, scaleMax));
+		double	ratio	= Math.pow(max / min, 1.0 / (scales - 1));
+		double	s[]		= new double[scales];
+		for (int k = 0; k < scales; k++)
+			s[k] = min * Math.pow(ratio, k);
+		return s;
+	}
+
+	public int getNumberOfThreads() {
+		if (nThreads > 0)
+			return nThreads;
+		return Runtime.getRuntime().availableProcessors();
 	}
 
 	@Override
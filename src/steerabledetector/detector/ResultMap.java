@@ -0,0 +1,267 @@
+/*
+ * Steer'n'Detect
+ * 
+ * Zsuzsanna Puspoki and Daniel Sage, Biomedical Imaging Group
+ * Ecole Polytechnique Federale de Lausanne (EPFL), Switzerland
+ * 
+ * Information: http://bigwww.epfl.ch/algorithms/steer_n_detect/
+ * 
+ * Conditions of use: You are free to use this software for research or
+ * educational purposes. In addition, we expect you to include adequate
+ * citations and acknowledgments whenever you present or publish results 
+ * that are based on it.
+ * 
+ * Reference: Z. Puspoki et al. submitted to Bioinformatics 2021.
+ */
+
+/*
+ * Copyright 2016-2021 Biomedical Imaging Group at the EPFL.
+ * 
+ * Steer'n'Detect is free software: you can redistribute it and/or modify it under 
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * Steer'n'Detect is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * Steer'n'Detect. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package steerabledetector.detector;
+
+import steerabledetector.image2d.ImageCartesian;
+
+/**
+ * Amplitudes and angles of a steered analysis in flat row-major arrays,
+ * addressed by (x, y) in the coordinates of the image.
+ * 
+ * wrap() is a view on the result of Method.steeredAnalysis, without copy:
+ * the spatial data of an ImageCartesian is swapped by half of the size
+ * (see ImageCartesian.getReal), the view shifts the indices instead of
+ * swapping the arrays. create() allocates a map in the order of the image,
+ * in single or double precision; maximum() projects the maps of several
+ * scales.
+ */
+public abstract class ResultMap {
+
+	protected final int	nx;
+	protected final int	ny;
+	private final int	shiftX;
+	private final int	shiftY;
+
+	protected ResultMap(int nx, int ny, int shiftX, int shiftY) {
+		this.nx		= nx;
+		this.ny		= ny;
+		this.shiftX	= shiftX;
+		this.shiftY	= shiftY;
+	}
+
+	/**
+	 * View on an analysis: amplitudes in the real part, angles in the
+	 * imaginary part.
+	 */
+	public static ResultMap wrap(ImageCartesian analysis) {
+		return new DoubleMap(analysis.nx, analysis.ny, analysis.nx / 2, analysis.ny / 2, analysis.dataReel, analysis.dataImag);
+	}
+
+	public static ResultMap create(int nx, int ny, boolean single) {
+		if (single)
+			return new FloatMap(nx, ny, new float[nx * ny], new float[nx * ny]);
+		return new DoubleMap(nx, ny, 0, 0, new double[nx * ny], new double[nx * ny]);
+	}
+
+	/**
+	 * Maximum projection of maps of the same size: the largest amplitude of
+	 * the pixel over the maps, with its angle.
+	 */
+	public static ResultMap maximum(ResultMap maps[], boolean single) {
+		int			nx	= maps[0].nx;
+		int			ny	= maps[0].ny;
+		ResultMap	max	= create(nx, ny, single);
+		for (int y = 0; y < ny; y++)
+			for (int x = 0; x < nx; x++) {
+				int best = 0;
+				for (int s = 1; s < maps.length; s++)
+					if (maps[s].getAmplitude(x, y) > maps[best].getAmplitude(x, y))
+						best = s;
+				max.set(max.index(x, y), maps[best].getAmplitude(x, y), maps[best].getAngle(x, y));
+			}
+		return max;
+	}
+
+	public int getWidth() {
+		return nx;
+	}
+
+	public int getHeight() {
+		return ny;
+	}
+
+	/**
+	 * Index in the arrays of the pixel (x, y).
+	 */
+	public int index(int x, int y) {
+		x += shiftX;
+		if (x >= nx)
+			x -= nx;
+		y += shiftY;
+		if (y >= ny)
+			y -= ny;
+		return x + nx * y;
+	}
+
+	public double getAmplitude(int x, int y) {
+		return getAmplitude(index(x, y));
+	}
+
+	public double getAngle(int x, int y) {
+		return getAngle(index(x, y));
+	}
+
+	public abstract double getAmplitude(int k);
+
+	public abstract double getAngle(int k);
+
+	public abstract void set(int k, double amplitude, double angle);
+
+	/**
+	 * Amplitudes of the row y, in the order of x.
+	 */
+	public abstract void getAmplitudeRow(int y, double row[]);
+
+	/**
+	 * Copies the region (sx, sy, w, h) of source at (x, y).
+	 */
+	public void copy(ResultMap source, int sx, int sy, int x, int y, int w, int h) {
+		for (int j = 0; j < h; j++)
+			for (int i = 0; i < w; i++) {
+				int k = source.index(sx + i, sy + j);
+				set(index(x + i, y + j), source.getAmplitude(k), source.getAngle(k));
+			}
+	}
+
+	/**
+	 * Amplitudes scaled to [0, 1] by the minimum and the maximum.
+	 */
+	public abstract void normalize();
+
+	/**
+	 * Angles from radians to degrees.
+	 */
+	public abstract void toDegrees();
+
+	private static class DoubleMap extends ResultMap {
+
+		private final double	amplitudes[];
+		private final double	angles[];
+
+		public DoubleMap(int nx, int ny, int shiftX, int shiftY, double amplitudes[], double angles[]) {
+			super(nx, ny, shiftX, shiftY);
+			this.amplitudes	= amplitudes;
+			this.angles		= angles;
+		}
+
+		@Override
+		public double getAmplitude(int k) {
+			return amplitudes[k];
+		}
+
+		@Override
+		public double getAngle(int k) {
+			return angles[k];
+		}
+
+		@Override
+		public void set(int k, double amplitude, double angle) {
+			amplitudes[k]	= amplitude;
+			angles[k]		= angle;
+		}
+
+		@Override
+		public void getAmplitudeRow(int y, double row[]) {
+			int k = index(0, y);
+			int offset = k % nx;
+			int first = nx - offset;
+			System.arraycopy(amplitudes, k, row, 0, first);
+			System.arraycopy(amplitudes, k - offset, row, first, offset);
+		}
+
+		@Override
+		public void normalize() {
+			double maxval = -Double.MAX_VALUE;
+			double minval = Double.MAX_VALUE;
+			for (double a : amplitudes) {
+				if (a < minval)
+					minval = a;
+				if (a > maxval)
+					maxval = a;
+			}
+			for (int k = 0; k < amplitudes.length; k++)
+				amplitudes[k] = maxval - minval != 0 ? (amplitudes[k] - minval) / (maxval - minval) : Double.MAX_VALUE;
+		}
+
+		@Override
+		public void toDegrees() {
+			for (int k = 0; k < angles.length; k++)
+				angles[k] = 180 * angles[k] / Math.PI;
+		}
+	}
+
+	private static class FloatMap extends ResultMap {
+
+		private final float	amplitudes[];
+		private final float	angles[];
+
+		public FloatMap(int nx, int ny, float amplitudes[], float angles[]) {
+			super(nx, ny, 0, 0);
+			this.amplitudes	= amplitudes;
+			this.angles		= angles;
+		}
+
+		@Override
+		public double getAmplitude(int k) {
+			return amplitudes[k];
+		}
+
+		@Override
+		public double getAngle(int k) {
+			return angles[k];
+		}
+
+		@Override
+		public void set(int k, double amplitude, double angle) {
+			amplitudes[k]	= (float) amplitude;
+			angles[k]		= (float) angle;
+		}
+
+		@Override
+		public void getAmplitudeRow(int y, double row[]) {
+			int k = y * nx;
+			for (int x = 0; x < nx; x++)
+				row[x] = amplitudes[k + x];
+		}
+
+		@Override
+		public void normalize() {
+			double maxval = -Double.MAX_VALUE;
+			double minval = Double.MAX_VALUE;
+			for (float a : amplitudes) {
+				if (a < minval)
+					minval = a;
+				if (a > maxval)
+					maxval = a;
+			}
+			for (int k = 0; k < amplitudes.length; k++)
+				amplitudes[k] = maxval - minval != 0 ? (float) ((amplitudes[k] - minval) / (maxval - minval)) : Float.MAX_VALUE;
+		}
+
+		@Override
+		public void toDegrees() {
+			for (int k = 0; k < angles.length; k++)
+				angles[k] = (float) (180 * angles[k] / Math.PI);
+		}
+	}
+}
@@ -0,0 +1,244 @@
+/*
+ * Steer'n'Detect
+ * 
+ * Zsuzsanna Puspoki and Daniel Sage, Biomedical Imaging Group
+ * Ecole Polytechnique Federale de Lausanne (EPFL), Switzerland
+ * 
+ * Information: http://bigwww.epfl.ch/algorithms/steer_n_detect/
+ * 
+ * Conditions of use: You are free to use this software for research or
+ * educational purposes. In addition, we expect you to include adequate
+ * citations and acknowledgments whenever you present or publish results 
+ * that are based on it.
+ * 
+ * Reference: Z. Puspoki et al. submitted to Bioinformatics 2021.
+ */
+
+/*
+ * Copyright 2016-2021 Biomedical Imaging Group at the EPFL.
+ * 
+ * Steer'n'Detect is free software: you can redistribute it and/or modify it under 
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * Steer'n'Detect is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * Steer'n'Detect. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package steerabledetector.detector;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.ImageProcessor;
+import steerabledetector.Instrumentation;
+import steerabledetector.Tools;
+import steerabledetector.filter.FilterBankCache;
+import steerabledetector.filter.SIPM;
+import steerabledetector.gui.components.HTMLPane;
+import steerabledetector.gui.components.ProgressionBar;
+import steerabledetector.image2d.Workspace;
+
+/**
+ * Detection on the slices params.firstSlice..params.lastSlice of a stack
+ * (or of the time points / z planes of a hyperstack, in the order of the
+ * stack), with the same model for all the slices.
+ * 
+ * The first slice is analyzed alone: it fits the model up to the order
+ * and fills the FilterBankCache of the stack, with a budget raised to
+ * hold the filter bank if the heap allows it. The other slices are then
+ * processed concurrently: while one slice is read (a virtual stack reads
+ * from the disk), the others are in the FFTs or in the search of the
+ * angles. The
+ * number of slices in flight is bounded by the threads and by the memory.
+ * The detections are tagged with the slice number (1-based).
+ */
+public class StackDetector {
+
+	private ImagePlus					imp;
+	private SIPM						model;
+	private Parameters					params;
+	private ProgressionBar				progress;
+	private HTMLPane					info;
+
+	private ArrayList<ArrayList<Detection>>	detections;
+	private int							first;
+	private int							last;
+	private int							kept		= -1;
+	private SteerableDetector			detector	= null;
+	private volatile boolean			stop		= false;
+
+	public StackDetector(ImagePlus imp, SIPM model, Parameters params, ProgressionBar progress, HTMLPane info) {
+		this.imp		= imp;
+		this.model		= model;
+		this.params		= params;
+		this.progress	= progress;
+		this.info		= info;
+	}
+
+	/**
+	 * Keeps the detector (maps of amplitudes and angles) of this slice, e.g.
+	 * the current slice for the interactive selection.
+	 */
+	public void keepDetector(int slice) {
+		kept = slice;
+	}
+
+	public SteerableDetector getDetector() {
+		return detector;
+	}
+
+	public void stop() {
+		stop = true;
+		model.stop();
+	}
+
+	public void run() {
+		stop	= false;
+		int n	= imp.getStackSize();
+		first	= Math.max(1, Math.min(n, params.firstSlice));
+		last	= params.lastSlice <= 0 ? n : Math.max(first, Math.min(n, params.lastSlice));
+		// one entry per slice, set once by its task
+		detections = new ArrayList<ArrayList<Detection>>(last - first + 1);
+		for (int s = first; s <= last; s++)
+			detections.add(null);
+
+		final ImageStack	stack		= imp.getStack();
+		final int			nslices		= last - first + 1;
+		int					threads		= params.multithread ? params.getNumberOfThreads() : 1;
+		int					concurrent	= Math.max(1, Math.min(Math.min(threads, nslices - 1), getSlicesInMemory()));
+		// with a profile file and without the instrumentation of a caller,
+		// the slices are instrumented together and written at the end
+		boolean				owner		= params.instrumentation == null && !params.profile.equals("");
+		final Parameters	sliceParams	= params.duplicate();
+		if (owner)
+			sliceParams.instrumentation = new Instrumentation();
+		sliceParams.nThreads	= Math.max(1, threads / concurrent);
+		// the slices have the same size, their arrays are reused from slice to slice
+		if (sliceParams.workspace == null)
+			sliceParams.workspace = new Workspace();
+		// without the cache of a caller, the stack has its own, dropped at the end
+		int cache = params.filterCache;
+		if (sliceParams.filterBankCache == null || !sliceParams.filterBankCache.isEnabled()) {
+			cache = Math.max(params.filterCache, getFilterBankMemory());
+			sliceParams.filterBankCache = new FilterBankCache(cache);
+		}
+		if (info != null)
+			info.append("p", "Stack: slices " + first + " to " + last + ", " + concurrent + " concurrent, filter cache " + cache + " MB");
+
+		// the first slice alone builds the filter bank
+		final Parameters firstParams = sliceParams.duplicate();
+		firstParams.nThreads = params.nThreads;
+		process(stack, first, firstParams);
+		progress("Slice " + first, 100.0 / nslices);
+
+		final AtomicInteger				done	= new AtomicInteger(1);
+		ArrayList<Callable<Boolean>>	tasks	= new ArrayList<Callable<Boolean>>();
+		for (int s = first + 1; s <= last; s++) {
+			final int slice = s;
+			tasks.add(new Callable<Boolean>() {
+				@Override
+				public Boolean call() {
+					if (stop)
+						return false;
+					// own copy, the instrumentation and the workspace are shared
+					process(stack, slice, sliceParams.duplicate());
+					int count = done.incrementAndGet();
+					progress("Slice " + count + "/" + nslices, count * 100.0 / nslices);
+					return true;
+				}
+			});
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(concurrent);
+		try {
+			Tools.getResults(executor.invokeAll(tasks));
+		}
+		catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			stop();
+		}
+		finally {
+			executor.shutdown();
+		}
+		if (owner)
+			sliceParams.instrumentation.write(new File(params.profile));
+	}
+
+	private void process(ImageStack stack, int slice, Parameters p) {
+		ImageProcessor ip;
+		// the reading of a virtual stack is not thread-safe
+		synchronized (stack) {
+			ip = stack.getProcessor(slice);
+		}
+		ImagePlus			image		= new ImagePlus(imp.getTitle() + "-" + slice, ip);
+		SteerableDetector	sd			= new SteerableDetector(image, model, p, null, null);
+		ArrayList<Detection> result		= sd.detect();
+		for (Detection detection : result)
+			detection.slice = slice;
+		detections.set(slice - first, result);
+		if (slice == kept)
+			detector = sd;
+	}
+
+	/**
+	 * Detections of all the slices, in the order of the slices.
+	 */
+	public ArrayList<Detection> getDetections() {
+		ArrayList<Detection> all = new ArrayList<Detection>();
+		for (ArrayList<Detection> slice : detections)
+			if (slice != null)
+				all.addAll(slice);
+		return all;
+	}
+
+	/**
+	 * Detections of one slice (1-based), empty if not processed.
+	 */
+	public ArrayList<Detection> getDetections(int slice) {
+		if (detections == null || slice < first || slice > last || detections.get(slice - first) == null)
+			return new ArrayList<Detection>();
+		return detections.get(slice - first);
+	}
+
+	/**
+	 * Memory of the filter bank in MB if it fits in a quarter of the free
+	 * heap, 0 otherwise (the filters are then computed for each slice).
+	 */
+	private int getFilterBankMemory() {
+		Runtime	runtime	= Runtime.getRuntime();
+		long	free	= runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+		int		filters	= params.symmetric ? params.nHarmonics + 1 : 2 * params.nHarmonics + 1;
+		long	bank	= 16L * imp.getWidth() * imp.getHeight() * filters;
+		if (bank > free / 4)
+			return 0;
+		return (int) (bank / (1024 * 1024)) + 1;
+	}
+
+	/**
+	 * Number of slices that fit at the same time in half of the free heap,
+	 * with the estimate of TiledAnalysis for the memory of a pixel.
+	 */
+	private int getSlicesInMemory() {
+		Runtime	runtime		= Runtime.getRuntime();
+		long	free		= runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+		int		responses	= params.symmetric ? params.nHarmonics + 1 : 2 * params.nHarmonics + 1;
+		long	slice		= (long) imp.getWidth() * imp.getHeight() * (responses * 2 * (params.singlePrecision ? 4 : 8) + 16 * 8);
+		return (int) Math.max(1, free / 2 / slice);
+	}
+
+	private void progress(String msg, double value) {
+		if (progress != null)
+			progress.progress(msg, value);
+	}
+}
@@ -32,12 +32,13 @@
 
 package steerabledetector.detector;
 
+import java.io.File;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
 
-import ij.IJ;
 import ij.ImagePlus;
+import steerabledetector.Instrumentation;
+import steerabledetector.Instrumentation.Probe;
+import steerabledetector.filter.HarmonicResponses;
 import steerabledetector.filter.SIPM;
 import steerabledetector.gui.Data;
 import steerabledetector.gui.components.HTMLPane;
@@ -50,9 +51,14 @@ public class SteerableDetector {
 	private SIPM				model;
 	private Parameters		params;
 	private ProgressionBar	progress;
+	private HTMLPane		info;
 
-	private double[][]		map;
-	private double[][]		angles;
+	private ResultMap		map;
+	private LocalMaxFinder	localMax;
+
+	// multi-scale mode: the scales and the map of each scale, null otherwise
+	private double			scales[];
+	private ResultMap		scaleMaps[];
 
 	private Data				data;
 	
@@ -60,159 +66,256 @@ public class SteerableDetector {
 		this.imp = imp;
 		this.model = model;
 		this.params = params;
-		this.data = new Data(imp, params);
 		this.progress = progress;
+		this.info = info;
 	}
 
 	public String getName() {
-		return "Wavelet-based scale estimation";
+		return isMultiScale() ? "Multi-scale steerable detection" : "Steerable detection";
+	}
+
+	/**
+	 * The tiled analysis works at the scale of the template only.
+	 */
+	private boolean isMultiScale() {
+		return params.isMultiScale() && !params.tiled && !params.streaming;
 	}
 
+	/**
+	 * Detections of the last analysis() for the interface, null before.
+	 */
 	public Data getData() {
 		return data;
 	}
 
+	/**
+	 * Local maxima { x, y, value } of the last detection.
+	 */
+	public ArrayList<double[]> getLocalMax() {
+		return localMax == null ? null : localMax.toList();
+	}
+
 	public Detection getDetection(int id, int x, int y) {
-		double size = 0.5*(params.patternSizeX + params.patternSizeY);
-		return new Detection(id, x, y, angles[x][y], map[x][y], size, "Auto");
+		double size = 0.5*(params.patternSizeX + params.patternSizeY) * getScale(x, y);
+		return new Detection(id, x, y, map.getAngle(x, y), map.getAmplitude(x, y), size, "Auto");
 	}
 
 	public Detection getDetection(int x, int y) {
-		if (angles == null)
-			return null;
 		if (map == null)
 			return null;
-		double size = 0.5*(params.patternSizeX + params.patternSizeY);
-		return new Detection(1000, x, y, angles[x][y], map[x][y], size, "Auto");
+		double size = 0.5*(params.patternSizeX + params.patternSizeY) * getScale(x, y);
+		return new Detection(1000, x, y, map.getAngle(x, y), map.getAmplitude(x, y), size, "Auto");
 	}
 
-	public void analysis() {
-		ImageCartesian imageToAnalyze = ImageCartesian.getImage(imp);
-		progress.progress("Start steering", 10);
-		ImageCartesian IC = model.steeredAnalysis(progress, imageToAnalyze, params.nHarmonics, params);
-		// amplitudes in the real part
-		// angles in the imaginary part
-		progress.progress("analysis", 20);
-
-		map = IC.getReal();
-		progress.progress("map", 30);
-		normalizeMap();
-		progress.progress("normalize", 40);
+	/**
+	 * Scale of the pattern at (x, y) relative to the template, 1 without the
+	 * multi-scale mode. The scale of the largest amplitude is refined by the
+	 * parabola through the amplitudes of the neighboring scales, in the
+	 * logarithm of the scale, within half a step.
+	 */
+	public double getScale(int x, int y) {
+		if (scaleMaps == null)
+			return 1.0;
+		int best = 0;
+		for (int s = 1; s < scaleMaps.length; s++)
+			if (scaleMaps[s].getAmplitude(x, y) > scaleMaps[best].getAmplitude(x, y))
+				best = s;
+		if (best == 0 || best == scaleMaps.length - 1)
+			return scales[best];
+		double a0 = scaleMaps[best - 1].getAmplitude(x, y);
+		double a1 = scaleMaps[best].getAmplitude(x, y);
+		double a2 = scaleMaps[best + 1].getAmplitude(x, y);
+		double curvature = a0 - 2.0 * a1 + a2;
+		if (curvature >= 0)
+			return scales[best];
+		double offset = Math.max(-0.5, Math.min(0.5, 0.5 * (a0 - a2) / curvature));
+		double step = offset < 0 ? Math.log(scales[best] / scales[best - 1]) : Math.log(scales[best + 1] / scales[best]);
+		return scales[best] * Math.exp(offset * step);
+	}
 
-		angles = IC.getImag();
-		angles2Deg();
+	public void analysis() {
+		setData(detect());
+	}
 
-		ArrayList<Detection> spotsSteered = new ArrayList<Detection>();
-		ArrayList<double[]> localMaxPositions = findLocalMax3x3(map, params.margin);
-		progress.progress("local max", 50);
+	/**
+	 * Data of the interface from the detections of detect().
+	 */
+	public void setData(ArrayList<Detection> detections) {
+		data = new Data(imp, params);
+		data.setLocalMax(getLocalMax());
+		data.setDetections(detections, new ArrayList<Detection>());
+	}
 
-		data.setLocalMax(localMaxPositions);
+	/**
+	 * Steered analysis, local maxima and trimming, without interface: the
+	 * progression and the journal can be null.
+	 */
+	public ArrayList<Detection> detect() {
+		// with a profile file and without the instrumentation of a caller,
+		// the run is instrumented and written to the profile file
+		boolean owner = params.instrumentation == null && !params.profile.equals("");
+		if (owner)
+			params.instrumentation = new Instrumentation();
+		Instrumentation instrumentation = params.instrumentation;
 
-		double[] coord = new double[2];
-		int x, y;
-		double size = 0.5*(params.patternSizeX + params.patternSizeY);
-		int n = localMaxPositions.size();
-		progress.reset("Detection");
-		for (int i = 0; i <n ; ++i) {
-			coord = localMaxPositions.get(i);
-			x = (int) coord[0];
-			y = (int) coord[1];
-			Detection detection = new Detection(spotsSteered.size(), x, y, angles[x][y], map[x][y], size, "Auto");
-			if (detection != null) {
-				spotsSteered.add(detection);
-			}
-			progress.progress("Detection " + (i+1) + "/" + n, (double)(i*100.0/n));
+		progress("Start steering", 10);
+		HarmonicResponses responses = null;
+		scales		= null;
+		scaleMaps	= null;
+		Probe analysis = Instrumentation.start(instrumentation, "Steered analysis");
+		if (params.tiled || params.streaming) {
+			if (params.isMultiScale() && info != null)
+				info.append("p", "Tiled analysis: at the scale of the template only");
+			if (params.refine && info != null)
+				info.append("p", "Tiled analysis: sub-pixel position only, the angle is not refined");
+			TiledAnalysis tiles = new TiledAnalysis(model, params, progress, info);
+			tiles.run(imp);
+			map = tiles.getMap();
+		}
+		else if (isMultiScale()) {
+			// the local maxima of the maximum projection over the scales are
+			// the maxima in (x, y, scale) which dominate their neighborhood
+			Probe probe = Instrumentation.start(instrumentation, "Image conversion");
+			ImageCartesian imageToAnalyze = ImageCartesian.getImage(imp);
+			Instrumentation.stop(probe);
+			scales = params.getScales();
+			if (params.refine && info != null)
+				info.append("p", "Multi-scale analysis: sub-pixel position only, the angle is not refined");
+			ImageCartesian IC[] = model.steeredAnalysis(progress, imageToAnalyze, params.nHarmonics, params, scales);
+			scaleMaps = new ResultMap[IC.length];
+			for (int s = 0; s < IC.length; s++)
+				scaleMaps[s] = ResultMap.wrap(IC[s]);
+			probe = Instrumentation.start(instrumentation, "Scale projection");
+			map = ResultMap.maximum(scaleMaps, params.singlePrecision);
+			Instrumentation.stop(probe);
+		}
+		else {
+			Probe probe = Instrumentation.start(instrumentation, "Image conversion");
+			ImageCartesian imageToAnalyze = ImageCartesian.getImage(imp);
+			Instrumentation.stop(probe);
+			responses = params.refine ? new HarmonicResponses() : null;
+			ImageCartesian IC = model.steeredAnalysis(progress, imageToAnalyze, params.nHarmonics, params, responses);
+			// amplitudes in the real part
+			// angles in the imaginary part
+			map = ResultMap.wrap(IC);
 		}
+		Instrumentation.stop(analysis);
+		progress("analysis", 20);
 
-		progress.progress("Start trim ", 90);
-		ArrayList<Detection> detections = trim(spotsSteered, params.nDetections, params.overlap);
-		progress.progress("End trim ", 100);
+		Probe probe = Instrumentation.start(instrumentation, "Normalization");
+		map.normalize();
+		progress("normalize", 40);
 
-		if (data == null)
-			IJ.log("data: Null.");
-		data.setDetections(detections, new ArrayList<Detection>());
+		map.toDegrees();
+		Instrumentation.stop(probe);
 
-	}
+		probe = Instrumentation.start(instrumentation, "Local maxima");
+		ArrayList<Detection> spotsSteered = new ArrayList<Detection>();
+		localMax = new LocalMaxFinder();
+		localMax.setRadius(LocalMaxFinder.getRadius(params));
+		localMax.setThreshold(params.minConfidence);
+		localMax.setThreads(params.multithread ? params.getNumberOfThreads() : 1);
+		int n = localMax.find(map, params.margin);
+		Instrumentation.stop(probe);
+		// interrupted, the maxima of an incomplete scan are dropped and the
+		// interruption stays on the thread for the caller
+		if (localMax.isStopped() && info != null)
+			info.append("p", "Local maxima: interrupted, no detection");
+		progress("local max", 50);
 
-	private ArrayList<double[]> findLocalMax3x3(double[][] map, double margin) {
-		int nx = map.length;
-		int ny = map[0].length;
-		int m = (int) Math.max(1, margin);
-		ArrayList<double[]> locMaxPosition = new ArrayList<double[]>();
-		for (int i = m; i < nx - m; ++i) {
-			for (int j = m; j < ny - m; ++j) {
-				double test = map[i][j];
-				if (test > 0)
-					if (map[i - 1][j - 1] <= test)
-						if (map[i - 1][j] <= test)
-							if (map[i - 1][j + 1] <= test)
-								if (map[i + 1][j - 1] <= test)
-									if (map[i + 1][j] <= test)
-										if (map[i + 1][j + 1] <= test)
-											if (map[i][j - 1] <= test)
-												if (map[i][j + 1] <= test) {
-													locMaxPosition.add(new double[] { i, j, test });
-												}
-			}
+		probe = Instrumentation.start(instrumentation, "Detections");
+		double size = 0.5*(params.patternSizeX + params.patternSizeY);
+		if (progress != null)
+			progress.reset("Detection");
+		for (int i = 0; i <n ; ++i) {
+			int x = localMax.getX(i);
+			int y = localMax.getY(i);
+			spotsSteered.add(new Detection(spotsSteered.size(), x, y, map.getAngle(x, y), localMax.getValue(i), size * getScale(x, y), "Auto"));
+			progress("Detection " + (i+1) + "/" + n, (double)(i*100.0/n));
 		}
-		return locMaxPosition;
-	}
+		Instrumentation.stop(probe);
 
-	private ArrayList<Detection> trim(ArrayList<Detection> detections, int maxNumber, double proximity) {
-		Collections.sort(detections, new Comparator<Detection>() {
-			@Override
-			public int compare(Detection spot1, Detection spot2) {
-				return (spot1.amplitude < spot2.amplitude ? 1 : -1);
+		progress("Start trim ", 90);
+		probe = Instrumentation.start(instrumentation, "Trim");
+		ArrayList<Detection> detections = NonMaximumSuppression.trim(spotsSteered, params.nDetections, params.overlap);
+		Instrumentation.stop(probe);
+		if (params.refine) {
+			probe = Instrumentation.start(instrumentation, "Refinement");
+			for (Detection detection : detections)
+				refine(detection, responses);
+			if (responses != null)
+				responses.clear();
+			Instrumentation.stop(probe);
+		}
+		progress("End trim ", 100);
 
-			}
-		});
-
-		ArrayList<Detection> goods = new ArrayList<Detection>();
-		for (Detection candidate : detections) {
-			boolean flag = false;
-			for (Detection good : goods)
-				if (good.distance(candidate) < proximity)
-					flag = true;
-			if ((flag == false)) {
-				candidate.id = goods.size();
-				goods.add(candidate);
-			}
-			if (goods.size() >= maxNumber) {	
-				return goods;
-			}
+		if (instrumentation != null)
+			instrumentation.endRun();
+		if (owner) {
+			params.instrumentation = null;
+			instrumentation.write(new File(params.profile));
+			if (info != null)
+				for (String line : instrumentation.toLines())
+					info.append("p", line);
 		}
-		return goods;
+		return detections;
 	}
 
-	private void normalizeMap() {
-
-		double maxval = -Double.MAX_VALUE;
-		double minval = Double.MAX_VALUE;
-		for (int i = 0; i < map.length; ++i) {
-			for (int j = 0; j < map[0].length; ++j) {
-				if (map[i][j] < minval)
-					minval = map[i][j];
-				if (map[i][j] > maxval)
-					maxval = map[i][j];
-			}
-		}
-		for (int i = 0; i < map.length; ++i) {
-			for (int j = 0; j < map[0].length; ++j) {
-				if (maxval - minval != 0)
-					map[i][j] = (map[i][j] - minval) / (maxval - minval);
+	/**
+	 * Sub-pixel position of the maximum of the quadratic surface fitted (least
+	 * squares) on the 3x3 neighborhood of the map, kept if the surface has a
+	 * maximum within half a pixel in both directions. The angle is then
+	 * refined on the responses of the harmonics at this position, without
+	 * the grid of deltaAlpha; without responses (tiled analysis, or the
+	 * multi-scale mode which does not keep the responses of the scales), only
+	 * the position is refined and the angle of the pixel is kept.
+	 */
+	private void refine(Detection detection, HarmonicResponses responses) {
+		int x = (int) detection.x;
+		int y = (int) detection.y;
+		if (x < 1 || y < 1 || x >= map.getWidth() - 1 || y >= map.getHeight() - 1)
+			return;
+		double sx = 0, sy = 0, sxy = 0, sxx = 0, syy = 0, s0x = 0, s0y = 0;
+		for (int i = -1; i <= 1; i++)
+			for (int j = -1; j <= 1; j++) {
+				double v = map.getAmplitude(x + i, y + j);
+				sx += i * v;
+				sy += j * v;
+				sxy += i * j * v;
+				if (i != 0)
+					sxx += v;
+				else
+					s0x += v;
+				if (j != 0)
+					syy += v;
 				else
-					map[i][j] = Double.MAX_VALUE;
+					s0y += v;
 			}
-		}
-	}
-
-	private void angles2Deg() {
-		for (int i = 0; i < angles.length; ++i) {
-			for (int j = 0; j < angles[0].length; ++j) {
-				angles[i][j] = 180 * angles[i][j] / Math.PI;
+		// f = c + bx x + by y + dxx x^2 + dyy y^2 + dxy x y
+		double bx = sx / 6.0;
+		double by = sy / 6.0;
+		double dxy = sxy / 4.0;
+		double dxx = (sxx * 0.5 - s0x) / 3.0;
+		double dyy = (syy * 0.5 - s0y) / 3.0;
+		double det = 4.0 * dxx * dyy - dxy * dxy;
+		if (dxx < 0 && det > 0) {
+			double ox = (-2.0 * dyy * bx + dxy * by) / det;
+			double oy = (-2.0 * dxx * by + dxy * bx) / det;
+			if (Math.abs(ox) <= 0.5 && Math.abs(oy) <= 0.5) {
+				detection.x = x + ox;
+				detection.y = y + oy;
 			}
 		}
+		if (responses != null && responses.isAvailable()) {
+			double alpha = responses.getAngle(detection.x, detection.y);
+			if (!Double.isNaN(alpha))
+				detection.angle = 180 * alpha / Math.PI;
+		}
+	}
 
+	private void progress(String msg, double value) {
+		if (progress != null)
+			progress.progress(msg, value);
 	}
 
-}
\ No newline at end of file
+}
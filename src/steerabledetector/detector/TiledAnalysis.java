@@ -0,0 +1,204 @@
+/*
+ * Steer'n'Detect
+ * 
+ * Zsuzsanna Puspoki and Daniel Sage, Biomedical Imaging Group
+ * Ecole Polytechnique Federale de Lausanne (EPFL), Switzerland
+ * 
+ * Information: http://bigwww.epfl.ch/algorithms/steer_n_detect/
+ * 
+ * Conditions of use: You are free to use this software for research or
+ * educational purposes. In addition, we expect you to include adequate
+ * citations and acknowledgments whenever you present or publish results 
+ * that are based on it.
+ * 
+ * Reference: Z. Puspoki et al. submitted to Bioinformatics 2021.
+ */
+
+/*
+ * Copyright 2016-2021 Biomedical Imaging Group at the EPFL.
+ * 
+ * Steer'n'Detect is free software: you can redistribute it and/or modify it under 
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * Steer'n'Detect is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * Steer'n'Detect. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package steerabledetector.detector;
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ij.ImagePlus;
+import ij.process.FloatProcessor;
+import steerabledetector.Tools;
+import steerabledetector.filter.FilterBankCache;
+import steerabledetector.filter.SIPM;
+import steerabledetector.gui.components.HTMLPane;
+import steerabledetector.gui.components.ProgressionBar;
+import steerabledetector.image2d.ImageCartesian;
+import steerabledetector.image2d.Workspace;
+
+/**
+ * Steered analysis of an image by tiles, overlap-save: each tile is the core
+ * region extended by a padding of the size of the template on every side,
+ * taken periodically outside of the image as the FFT of the full image does.
+ * The steered analysis of the tile is computed and only its core is kept.
+ * 
+ * The filters are not compactly supported in space: their tails beyond the
+ * padding are lost, and the amplitudes differ from the full-frame analysis by
+ * a few percent of the local response, mostly in the background. Detections
+ * of nearly equal amplitude can swap ranks. When the memory budget allows a
+ * single tile, the full frame is analyzed without padding and the result is
+ * the full-frame result. The tiles are processed concurrently.
+ * 
+ * In the streaming mode, the tiles are bands of full rows, padded only
+ * vertically, and the number of rows is set by the memory budget: the peak
+ * memory does not depend on the number of harmonics, a larger N gives
+ * thinner bands. Along x, the band is periodic as the full frame.
+ */
+public class TiledAnalysis {
+
+	private SIPM			model;
+	private Parameters		params;
+	private ProgressionBar	progress;
+	private HTMLPane		info;
+
+	private ResultMap		map;
+
+	public TiledAnalysis(SIPM model, Parameters params, ProgressionBar progress, HTMLPane info) {
+		this.model		= model;
+		this.params		= params;
+		this.progress	= progress;
+		this.info		= info;
+	}
+
+	/**
+	 * Amplitudes and angles (radians) of the steered analysis, in single
+	 * precision with params.singlePrecision.
+	 */
+	public ResultMap getMap() {
+		return map;
+	}
+
+	public void run(ImagePlus imp) {
+		FloatProcessor	fp			= (FloatProcessor) imp.getProcessor().convertToFloat();
+		final float[]	data		= (float[]) fp.getPixels();
+		final int		width		= fp.getWidth();
+		final int		height		= fp.getHeight();
+		final String	title		= imp.getTitle().split("\\.", 2)[0];
+
+		int				concurrent	= params.multithread ? params.getNumberOfThreads() : 1;
+		int				pad			= getPadding();
+		long			pixels		= getTilePixels(concurrent);
+		final int		coreX, coreY, padX, padY;
+		if (params.streaming) {
+			// full-width bands, periodic in x as the full frame
+			int rows = (int) Math.max(2 * pad + 16, pixels / width);
+			padX	= 0;
+			padY	= rows - 2 * pad >= height ? 0 : pad;
+			coreX	= width;
+			coreY	= Math.min(height, rows - 2 * padY);
+		}
+		else {
+			int side = (int) Math.max(2 * pad + 32, Math.sqrt(pixels));
+			// a single tile is the full frame, without padding
+			padX	= side - 2 * pad >= Math.max(width, height) ? 0 : pad;
+			padY	= padX;
+			coreX	= Math.min(width, side - 2 * padX);
+			coreY	= Math.min(height, side - 2 * padY);
+		}
+		// the size of the tile is even for the FFT
+		final int		nx			= coreX + 2 * padX + coreX % 2;
+		final int		ny			= coreY + 2 * padY + coreY % 2;
+
+		map = ResultMap.create(width, height, params.singlePrecision);
+
+		ArrayList<int[]> origins = new ArrayList<int[]>();
+		for (int y = 0; y < height; y += coreY)
+			for (int x = 0; x < width; x += coreX)
+				origins.add(new int[] { Math.min(x, width - coreX), Math.min(y, height - coreY) });
+		concurrent = Math.min(concurrent, origins.size());
+		if (info != null)
+			info.append("p", (params.streaming ? "Bands: " : "Tiles: ") + origins.size() + " of " + nx + "x" + ny + " (core " + coreX + "x" + coreY + ", padding " + padX + "x" + padY + "), " + concurrent + " concurrent");
+
+		// a single tile in flight uses the threads itself
+		final Parameters				tileParams	= params.duplicate();
+		tileParams.multithread = concurrent == 1 && params.multithread;
+		// the tiles have the same size, their arrays are reused from tile to tile
+		if (tileParams.workspace == null)
+			tileParams.workspace = new Workspace();
+		// and their filters from tile to tile
+		if (tileParams.filterBankCache == null)
+			tileParams.filterBankCache = new FilterBankCache(params.filterCache);
+		final Workspace					workspace	= tileParams.workspace;
+		final int						ntiles		= origins.size();
+		final AtomicInteger				done		= new AtomicInteger(0);
+		ArrayList<Callable<Boolean>>	tasks		= new ArrayList<Callable<Boolean>>();
+		for (final int[] origin : origins) {
+			tasks.add(new Callable<Boolean>() {
+				@Override
+				public Boolean call() {
+					int				x0		= origin[0];
+					int				y0		= origin[1];
+					ImageCartesian	tile	= ImageCartesian.getPeriodicCrop(data, width, height, x0 - padX, y0 - padY, nx, ny, title, workspace);
+					ImageCartesian	IC		= model.steeredAnalysis(progress, tile, tileParams.nHarmonics, tileParams);
+					workspace.release(tile);
+					map.copy(ResultMap.wrap(IC), padX, padY, x0, y0, coreX, coreY);
+					workspace.release(IC);
+					int count = done.incrementAndGet();
+					if (progress != null)
+						progress.progress("Tile " + count + "/" + ntiles, count * 100.0 / ntiles);
+					return true;
+				}
+			});
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(concurrent);
+		try {
+			Tools.getResults(executor.invokeAll(tasks));
+		}
+		catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			model.stop();
+		}
+		finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Padding of the tiles, the size of the template, even.
+	 */
+	private int getPadding() {
+		int pad = Math.max(params.patternSizeX, params.patternSizeY);
+		if (pad <= 0)
+			pad = 64;
+		return pad + pad % 2;
+	}
+
+	/**
+	 * Number of pixels of a tile fitting in the memory budget
+	 * (params.tileMemory in MB, or half of the free heap) shared by the
+	 * concurrent tiles. A pixel of a tile costs the stored responses of the
+	 * harmonics and about 16 double arrays for the image, its spectrum, the
+	 * filter in progress and the result.
+	 */
+	private long getTilePixels(int concurrent) {
+		Runtime	runtime		= Runtime.getRuntime();
+		long	free		= runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+		long	budget		= params.tileMemory > 0 ? params.tileMemory * 1024L * 1024L : free / 2;
+		int		responses	= params.symmetric ? params.nHarmonics + 1 : 2 * params.nHarmonics + 1;
+		int		bytes		= responses * 2 * (params.singlePrecision ? 4 : 8) + 16 * 8;
+		return budget / concurrent / bytes;
+	}
+
+}
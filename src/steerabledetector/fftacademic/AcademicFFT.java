@@ -19,10 +19,12 @@ package steerabledetector.fftacademic;
 \===================================================================*/
 
 
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.Set;
 import java.util.TreeMap;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
@@ -11358,16 +11360,16 @@ private static final HashSet<Integer> primes = new HashSet<Integer>();
 /*....................................................................
 	FFTSetup static protected variables
 ....................................................................*/
-protected static final HashMap<Integer, Algorithm> algorithms =
-	new HashMap<Integer, Algorithm>();
-protected static final HashMap<Integer, Integer> lengths =
-	new HashMap<Integer, Integer>();
-protected static final HashMap<Integer, FFTSetup> transforms =
-	new HashMap<Integer, FFTSetup>();
-protected static final HashMap<Integer, Long> costs =
-	new HashMap<Integer, Long>();
-protected static final HashSet<Integer> taboos =
-	new HashSet<Integer>();
+protected static final ConcurrentHashMap<Integer, Algorithm> algorithms =
+	new ConcurrentHashMap<Integer, Algorithm>();
+protected static final ConcurrentHashMap<Integer, Integer> lengths =
+	new ConcurrentHashMap<Integer, Integer>();
+protected static final ConcurrentHashMap<Integer, FFTSetup> transforms =
+	new ConcurrentHashMap<Integer, FFTSetup>();
+protected static final ConcurrentHashMap<Integer, Long> costs =
+	new ConcurrentHashMap<Integer, Long>();
+protected static final Set<Integer> taboos =
+	Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
 protected static final long FLASSIGN = 2L;
 protected static final long FLOP = 4L;
 protected static final long IDX = 1L;
@@ -11822,14 +11824,14 @@ static class FFTSetupDuoReal
 /*....................................................................
 	FFTSetupDuoReal static protected variables
 ....................................................................*/
-protected static final HashMap<Integer, Algorithm> algorithms =
-	new HashMap<Integer, Algorithm>();
-protected static final HashMap<Integer, Integer> lengths =
-	new HashMap<Integer, Integer>();
-protected static final HashMap<Integer, FFTSetupDuoReal> transforms =
-	new HashMap<Integer, FFTSetupDuoReal>();
-protected static final HashMap<Integer, Long> costs =
-	new HashMap<Integer, Long>();
+protected static final ConcurrentHashMap<Integer, Algorithm> algorithms =
+	new ConcurrentHashMap<Integer, Algorithm>();
+protected static final ConcurrentHashMap<Integer, Integer> lengths =
+	new ConcurrentHashMap<Integer, Integer>();
+protected static final ConcurrentHashMap<Integer, FFTSetupDuoReal> transforms =
+	new ConcurrentHashMap<Integer, FFTSetupDuoReal>();
+protected static final ConcurrentHashMap<Integer, Long> costs =
+	new ConcurrentHashMap<Integer, Long>();
 
 /*....................................................................
 	FFTSetupDuoReal protected variables
@@ -11944,14 +11946,14 @@ static class FFTSetupReal
 /*....................................................................
 	FFTSetupReal static protected variables
 ....................................................................*/
-protected static final HashMap<Integer, Algorithm> algorithms =
-	new HashMap<Integer, Algorithm>();
-protected static final HashMap<Integer, Integer> lengths =
-	new HashMap<Integer, Integer>();
-protected static final HashMap<Integer, FFTSetupReal> transforms =
-	new HashMap<Integer, FFTSetupReal>();
-protected static final HashMap<Integer, Long> costs =
-	new HashMap<Integer, Long>();
+protected static final ConcurrentHashMap<Integer, Algorithm> algorithms =
+	new ConcurrentHashMap<Integer, Algorithm>();
+protected static final ConcurrentHashMap<Integer, Integer> lengths =
+	new ConcurrentHashMap<Integer, Integer>();
+protected static final ConcurrentHashMap<Integer, FFTSetupReal> transforms =
+	new ConcurrentHashMap<Integer, FFTSetupReal>();
+protected static final ConcurrentHashMap<Integer, Long> costs =
+	new ConcurrentHashMap<Integer, Long>();
 
 /*....................................................................
 	FFTSetupReal static private variables
@@ -62,8 +62,13 @@ public class ComplexProcessor {
 		int ny = real.getHeight();
 		float[] re = (float[]) real.getPixels();
 		float[] im = (float[]) imag.getPixels();
-		AcademicFFT fft = new AcademicFFT(nx, ny, 0, 0);
-		fft.directTransform(re, im, null, null, AcademicFFT.InputDataType.COMPLEXINPUT);
+		AcademicFFT fft = FFTPlanCache.acquire(nx, ny);
+		try {
+			fft.directTransform(re, im, null, null, AcademicFFT.InputDataType.COMPLEXINPUT);
+		}
+		finally {
+			FFTPlanCache.release(fft);
+		}
 		shift(re, nx, ny);
 		shift(im, nx, ny);
 		FloatProcessor real = new FloatProcessor(nx, ny, re);
@@ -75,12 +80,17 @@ public class ComplexProcessor {
 	public ComplexProcessor inverse() {
 		int nx = real.getWidth();
 		int ny = imag.getHeight();
-		AcademicFFT fft = new AcademicFFT(nx, ny, 0, 0);
+		AcademicFFT fft = FFTPlanCache.acquire(nx, ny);
 		float[] re = (float[]) real.getPixels();
 		float[] im = (float[]) imag.getPixels();
 		shift(re, nx, ny);
 		shift(im, nx, ny);
-		fft.inverseTransform(re, im, null, null);
+		try {
+			fft.inverseTransform(re, im, null, null);
+		}
+		finally {
+			FFTPlanCache.release(fft);
+		}
 		FloatProcessor real = new FloatProcessor(nx, ny, re);
 		FloatProcessor imag = new FloatProcessor(nx, ny, im);
 		return new ComplexProcessor(real, imag, Representation.CARTESIAN);
@@ -91,8 +101,13 @@ public class ComplexProcessor {
 		int ny = real.getHeight();
 		float[] re = (float[]) real.getPixels();
 		float[] im = (float[]) imag.getPixels();
-		AcademicFFT fft = new AcademicFFT(nx, ny, 0, 0);
-		fft.makeHermitian(re, im, null, null);
+		AcademicFFT fft = FFTPlanCache.acquire(nx, ny);
+		try {
+			fft.makeHermitian(re, im, null, null);
+		}
+		finally {
+			FFTPlanCache.release(fft);
+		}
 	}
 
 	public ComplexProcessor translate(double dx, double dy) {
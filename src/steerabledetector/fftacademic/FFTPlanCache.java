@@ -0,0 +1,199 @@
+/*
+ * Steer'n'Detect
+ * 
+ * Zsuzsanna Puspoki and Daniel Sage, Biomedical Imaging Group
+ * Ecole Polytechnique Federale de Lausanne (EPFL), Switzerland
+ * 
+ * Information: http://bigwww.epfl.ch/algorithms/steer_n_detect/
+ * 
+ * Conditions of use: You are free to use this software for research or
+ * educational purposes. In addition, we expect you to include adequate
+ * citations and acknowledgments whenever you present or publish results 
+ * that are based on it.
+ * 
+ * Reference: Z. Puspoki et al. submitted to Bioinformatics 2021.
+ */
+
+/*
+ * Copyright 2016-2021 Biomedical Imaging Group at the EPFL.
+ * 
+ * Steer'n'Detect is free software: you can redistribute it and/or modify it under 
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * Steer'n'Detect is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * Steer'n'Detect. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package steerabledetector.fftacademic;
+
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Pool of prepared AcademicFFT objects, keyed by the geometry (width,
+ * height, depth, origins of the Fourier domain).
+ * 
+ * An AcademicFFT keeps the data of the transform in progress, it cannot be
+ * shared by two threads; an object is acquired for one transform and
+ * released after. The construction writes the static tables of the FFT
+ * setups, it is done under a lock; the tables are concurrent maps, the
+ * transforms of other geometries read them meanwhile without lock. The
+ * geometries are evicted in the least-recently-used order.
+ */
+public class FFTPlanCache {
+
+	private static int											capacity	= 16;
+	private static int											maxIdle		= Runtime.getRuntime().availableProcessors();
+
+	private static final Map<Geometry, ArrayDeque<AcademicFFT>>	pool		= new LinkedHashMap<Geometry, ArrayDeque<AcademicFFT>>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Geometry, ArrayDeque<AcademicFFT>> eldest) {
+			if (size() > capacity) {
+				evictions++;
+				return true;
+			}
+			return false;
+		}
+	};
+
+	private static final Map<AcademicFFT, Geometry>				leased		= new IdentityHashMap<AcademicFFT, Geometry>();
+	private static final Object									planning	= new Object();
+
+	private static long											hits		= 0;
+	private static long											misses		= 0;
+	private static long											evictions	= 0;
+
+	public static AcademicFFT acquire(int width, int height) {
+		return acquire(width, height, 1, 0, 0, 0);
+	}
+
+	public static AcademicFFT acquire(int width, int height, int depth, int origin1, int origin2, int origin3) {
+		Geometry geometry = new Geometry(width, height, depth, origin1, origin2, origin3);
+		synchronized (FFTPlanCache.class) {
+			ArrayDeque<AcademicFFT> idle = pool.get(geometry);
+			if (idle != null && !idle.isEmpty()) {
+				AcademicFFT fft = idle.pop();
+				leased.put(fft, geometry);
+				hits++;
+				return fft;
+			}
+			misses++;
+		}
+		AcademicFFT fft;
+		synchronized (planning) {
+			if (depth > 1)
+				fft = new AcademicFFT(width, height, depth, origin1, origin2, origin3);
+			else
+				fft = new AcademicFFT(width, height, origin1, origin2);
+		}
+		synchronized (FFTPlanCache.class) {
+			leased.put(fft, geometry);
+		}
+		return fft;
+	}
+
+	/**
+	 * Returns the object to the pool; the references to the data of the last
+	 * transform are dropped.
+	 */
+	public static synchronized void release(AcademicFFT fft) {
+		Geometry geometry = leased.remove(fft);
+		if (geometry == null)
+			return;
+		fft.reDataDouble	= null;
+		fft.imDataDouble	= null;
+		fft.reBufferDouble	= null;
+		fft.imBufferDouble	= null;
+		fft.reDataFloat		= null;
+		fft.imDataFloat		= null;
+		fft.reBufferFloat	= null;
+		fft.imBufferFloat	= null;
+		ArrayDeque<AcademicFFT> idle = pool.get(geometry);
+		if (idle == null) {
+			idle = new ArrayDeque<AcademicFFT>();
+			pool.put(geometry, idle);
+		}
+		if (idle.size() < maxIdle)
+			idle.push(fft);
+	}
+
+	public static synchronized void setCapacity(int geometries, int idlePerGeometry) {
+		capacity	= Math.max(1, geometries);
+		maxIdle		= Math.max(1, idlePerGeometry);
+		pool.clear();
+	}
+
+	public static synchronized void clear() {
+		pool.clear();
+	}
+
+	public static synchronized long getHits() {
+		return hits;
+	}
+
+	public static synchronized long getMisses() {
+		return misses;
+	}
+
+	public static synchronized long getEvictions() {
+		return evictions;
+	}
+
+	public static synchronized void resetStatistics() {
+		hits		= 0;
+		misses		= 0;
+		evictions	= 0;
+	}
+
+	public static synchronized String getStatistics() {
+		long total = hits + misses;
+		String rate = total == 0 ? "-" : String.format("%3.1f%%", 100.0 * hits / total);
+		return "FFT plan cache: " + hits + " hits, " + misses + " misses (" + rate + "), " + evictions + " evictions, " + pool.size() + " geometries";
+	}
+
+	private static class Geometry {
+
+		private final int	width;
+		private final int	height;
+		private final int	depth;
+		private final int	origin1;
+		private final int	origin2;
+		private final int	origin3;
+
+		public Geometry(int width, int height, int depth, int origin1, int origin2, int origin3) {
+			this.width		= width;
+			this.height		= height;
+			this.depth		= depth;
+			this.origin1	= origin1;
+			this.origin2	= origin2;
+			this.origin3	= origin3;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Geometry))
+				return false;
+			Geometry g = (Geometry) o;
+			return width == g.width && height == g.height && depth == g.depth && origin1 == g.origin1 && origin2 == g.origin2 && origin3 == g.origin3;
+		}
+
+		@Override
+		public int hashCode() {
+			int h = width;
+			h = 31 * h + height;
+			h = 31 * h + depth;
+			h = 31 * h + origin1;
+			h = 31 * h + origin2;
+			h = 31 * h + origin3;
+			return h;
+		}
+	}
+}
@@ -0,0 +1,195 @@
+/*
+ * Steer'n'Detect
+ * 
+ * Zsuzsanna Puspoki and Daniel Sage, Biomedical Imaging Group
+ * Ecole Polytechnique Federale de Lausanne (EPFL), Switzerland
+ * 
+ * Information: http://bigwww.epfl.ch/algorithms/steer_n_detect/
+ * 
+ * Conditions of use: You are free to use this software for research or
+ * educational purposes. In addition, we expect you to include adequate
+ * citations and acknowledgments whenever you present or publish results 
+ * that are based on it.
+ * 
+ * Reference: Z. Puspoki et al. submitted to Bioinformatics 2021.
+ */
+
+/*
+ * Copyright 2016-2021 Biomedical Imaging Group at the EPFL.
+ * 
+ * Steer'n'Detect is free software: you can redistribute it and/or modify it under 
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * Steer'n'Detect is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * Steer'n'Detect. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package steerabledetector.filter;
+
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import steerabledetector.image2d.ImageCartesian;
+
+/**
+ * Frequency-domain filters of the filter bank, already multiplied by the
+ * whitening |w|^{2 gamma}, kept from one image to the next.
+ * 
+ * A filter depends only on the model, the order, the folding, the
+ * geometry of the image (nx, ny, physical size), the scale and gamma; on a batch of
+ * images of the same size, only the FFT of the image and the products
+ * remain. The filters are evicted in the least-recently-used order to stay
+ * within the memory budget; a budget of 0 disables the cache. The cached
+ * filters are shared, they should not be modified.
+ * 
+ * A cache belongs to a run (the tiles of an image, the slices of a stack,
+ * the images of a batch) as the Workspace does, given to the analyses by
+ * Parameters.filterBankCache, with the budget of this run. The model is
+ * referenced weakly: the filters of a model that is no longer used are
+ * dropped.
+ */
+public class FilterBankCache {
+
+	private final long										budget;
+	private long											used		= 0;
+
+	private final LinkedHashMap<Key, ImageCartesian>		filters		= new LinkedHashMap<Key, ImageCartesian>(16, 0.75f, true);
+
+	private long											hits		= 0;
+	private long											misses		= 0;
+	private long											evictions	= 0;
+
+	public FilterBankCache(int budgetMB) {
+		budget = Math.max(0, budgetMB) * 1024L * 1024L;
+	}
+
+	public boolean isEnabled() {
+		return budget > 0;
+	}
+
+	public synchronized ImageCartesian get(Method method, int order, boolean folded, ImageCartesian geometry, double scale, double gamma, boolean radialTable) {
+		if (budget <= 0)
+			return null;
+		ImageCartesian filter = filters.get(new Key(method, order, folded, geometry, scale, gamma, radialTable));
+		if (filter != null)
+			hits++;
+		else
+			misses++;
+		return filter;
+	}
+
+	public synchronized void put(Method method, int order, boolean folded, ImageCartesian geometry, double scale, double gamma, boolean radialTable, ImageCartesian filter) {
+		long size = 16L * filter.nx * filter.ny;
+		if (size > budget)
+			return;
+		purge();
+		ImageCartesian previous = filters.put(new Key(method, order, folded, geometry, scale, gamma, radialTable), filter);
+		if (previous != null)
+			used -= 16L * previous.nx * previous.ny;
+		used += size;
+		trim();
+	}
+
+	public synchronized void clear() {
+		filters.clear();
+		used = 0;
+	}
+
+	public synchronized void resetStatistics() {
+		hits		= 0;
+		misses		= 0;
+		evictions	= 0;
+	}
+
+	public synchronized String getStatistics() {
+		long total = hits + misses;
+		String rate = total == 0 ? "-" : String.format("%3.1f%%", 100.0 * hits / total);
+		return "Filter bank cache: " + hits + " hits, " + misses + " misses (" + rate + "), " + evictions + " evictions, " + filters.size() + " filters, " + used / (1024 * 1024) + " MB";
+	}
+
+	private void trim() {
+		Iterator<Map.Entry<Key, ImageCartesian>> iterator = filters.entrySet().iterator();
+		while (used > budget && iterator.hasNext()) {
+			ImageCartesian filter = iterator.next().getValue();
+			used -= 16L * filter.nx * filter.ny;
+			iterator.remove();
+			evictions++;
+		}
+	}
+
+	/**
+	 * Drops the filters of the models already collected.
+	 */
+	private void purge() {
+		Iterator<Map.Entry<Key, ImageCartesian>> iterator = filters.entrySet().iterator();
+		while (iterator.hasNext()) {
+			Map.Entry<Key, ImageCartesian> entry = iterator.next();
+			if (entry.getKey().method.get() == null) {
+				used -= 16L * entry.getValue().nx * entry.getValue().ny;
+				iterator.remove();
+			}
+		}
+	}
+
+	private static class Key {
+
+		private final WeakReference<Method>	method;
+		private final int					identity;
+		private final int					order;
+		private final boolean				folded;
+		private final int					nx;
+		private final int					ny;
+		private final double				sizeX;
+		private final double				sizeY;
+		private final double				scale;
+		private final double				gamma;
+		private final boolean				radialTable;
+
+		public Key(Method method, int order, boolean folded, ImageCartesian geometry, double scale, double gamma, boolean radialTable) {
+			this.method			= new WeakReference<Method>(method);
+			this.identity		= System.identityHashCode(method);
+			this.order			= order;
+			this.folded			= folded;
+			this.nx				= geometry.nx;
+			this.ny				= geometry.ny;
+			this.sizeX			= geometry.sizeXSpace;
+			this.sizeY			= geometry.sizeYSpace;
+			this.scale			= scale;
+			this.gamma			= gamma > 0 ? gamma : 0;
+			this.radialTable	= radialTable;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key))
+				return false;
+			Key k = (Key) o;
+			Method m = method.get();
+			return m != null && m == k.method.get() && order == k.order && folded == k.folded && nx == k.nx && ny == k.ny && Double.compare(sizeX, k.sizeX) == 0 && Double.compare(sizeY, k.sizeY) == 0
+					&& Double.compare(scale, k.scale) == 0 && Double.compare(gamma, k.gamma) == 0 && radialTable == k.radialTable;
+		}
+
+		@Override
+		public int hashCode() {
+			int h = identity;
+			h = 31 * h + order;
+			h = 31 * h + (folded ? 1 : 0);
+			h = 31 * h + nx;
+			h = 31 * h + ny;
+			h = 31 * h + Double.valueOf(sizeX).hashCode();
+			h = 31 * h + Double.valueOf(sizeY).hashCode();
+			h = 31 * h + Double.valueOf(scale).hashCode();
+			h = 31 * h + Double.valueOf(gamma).hashCode();
+			h = 31 * h + (radialTable ? 1 : 0);
+			return h;
+		}
+	}
+}
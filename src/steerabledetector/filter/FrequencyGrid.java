@@ -0,0 +1,225 @@
+/*
+ * Steer'n'Detect
+ * 
+ * Zsuzsanna Puspoki and Daniel Sage, Biomedical Imaging Group
+ * Ecole Polytechnique Federale de Lausanne (EPFL), Switzerland
+ * 
+ * Information: http://bigwww.epfl.ch/algorithms/steer_n_detect/
+ * 
+ * Conditions of use: You are free to use this software for research or
+ * educational purposes. In addition, we expect you to include adequate
+ * citations and acknowledgments whenever you present or publish results 
+ * that are based on it.
+ * 
+ * Reference: Z. Puspoki et al. submitted to Bioinformatics 2021.
+ */
+
+/*
+ * Copyright 2016-2021 Biomedical Imaging Group at the EPFL.
+ * 
+ * Steer'n'Detect is free software: you can redistribute it and/or modify it under 
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * Steer'n'Detect is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * Steer'n'Detect. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package steerabledetector.filter;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Polar coordinates of the frequencies of a Fourier image, shared by all the
+ * filters of the same geometry (nx, ny, sizeXSpace, sizeYSpace).
+ * 
+ * The arrays are flat, indexed by indX + nx * indY as the data of
+ * ImageCartesian. The radial frequency is 2 pi |w|, without the scaling to
+ * the template. The tables cos(n theta) and sin(n theta) are computed once
+ * from the order 1 by the Chebyshev recurrence, and kept as long as the total
+ * memory of the tables stays within the budget; the orders beyond are
+ * computed for the call. At the frequency 0, cos(n theta) is 1 for n = 0
+ * and 0 otherwise, sin(n theta) is 0.
+ */
+public class FrequencyGrid {
+
+	private static int								capacity	= 8;
+	private static long								budget		= 256L * 1024 * 1024;
+	private static long								used		= 0;
+
+	private static final Map<Key, FrequencyGrid>	grids		= new LinkedHashMap<Key, FrequencyGrid>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Key, FrequencyGrid> eldest) {
+			if (size() > capacity) {
+				used -= eldest.getValue().bytes;
+				return true;
+			}
+			return false;
+		}
+	};
+
+	public final int								nx;
+	public final int								ny;
+	public final double								sizeX;
+	public final double								sizeY;
+
+	private final double[]							rho;
+	private final ArrayList<double[]>				cos			= new ArrayList<double[]>();
+	private final ArrayList<double[]>				sin			= new ArrayList<double[]>();
+	private long									bytes		= 0;
+
+	private FrequencyGrid(int nx, int ny, double sizeX, double sizeY) {
+		this.nx		= nx;
+		this.ny		= ny;
+		this.sizeX	= sizeX;
+		this.sizeY	= sizeY;
+
+		int			n		= nx * ny;
+		double[]	cos0	= new double[n];
+		double[]	sin0	= new double[n];
+		double[]	cos1	= new double[n];
+		double[]	sin1	= new double[n];
+		rho = new double[n];
+		// same positions as ImageCartesian.indexToPosition
+		for (int indY = 0; indY < ny; indY++) {
+			double py = indY < ny / 2 ? (double) indY / ny : (double) (indY - ny) / ny;
+			for (int indX = 0; indX < nx; indX++) {
+				int		k		= indX + nx * indY;
+				double	px		= indX < nx / 2 ? (double) indX / nx : (double) (indX - nx) / nx;
+				double	theta	= Math.atan2(py, px);
+				rho[k]	= Math.PI * 2 * Math.sqrt(Math.pow(px, 2) + Math.pow(py, 2));
+				cos0[k]	= 1;
+				cos1[k]	= Math.cos(theta);
+				sin1[k]	= Math.sin(theta);
+			}
+		}
+		cos1[0]	= 0;
+		sin1[0]	= 0;
+		cos.add(cos0);
+		sin.add(sin0);
+		cos.add(cos1);
+		sin.add(sin1);
+	}
+
+	public static synchronized FrequencyGrid get(int nx, int ny, double sizeX, double sizeY) {
+		Key				key		= new Key(nx, ny, sizeX, sizeY);
+		FrequencyGrid	grid	= grids.get(key);
+		if (grid == null) {
+			grid = new FrequencyGrid(nx, ny, sizeX, sizeY);
+			grids.put(key, grid);
+		}
+		return grid;
+	}
+
+	public static synchronized void setCapacity(int geometries, int budgetMB) {
+		capacity	= Math.max(1, geometries);
+		budget		= Math.max(0, budgetMB) * 1024L * 1024L;
+		clear();
+	}
+
+	public static synchronized void clear() {
+		grids.clear();
+		used = 0;
+	}
+
+	/**
+	 * Radial frequency 2 pi |w| of every pixel. The array is shared, it
+	 * should not be modified.
+	 */
+	public double[] getRho() {
+		return rho;
+	}
+
+	/**
+	 * Returns { cos(n theta), sin(n theta) } for n = |order|; the sign of
+	 * sin(-n theta) is left to the caller. The arrays can be shared, they
+	 * should not be modified.
+	 */
+	public double[][] getHarmonic(int order) {
+		int			n	= Math.abs(order);
+		int			top;
+		double[]	cos1, cm, sm, c, s;
+		synchronized (FrequencyGrid.class) {
+			long table = 16L * nx * ny;
+			while (cos.size() <= n && used + table <= budget) {
+				top = cos.size() - 1;
+				double[][] next = recurrence(cos.get(1), cos.get(top - 1), sin.get(top - 1), cos.get(top), sin.get(top));
+				cos.add(next[0]);
+				sin.add(next[1]);
+				bytes	+= table;
+				used	+= table;
+			}
+			if (cos.size() > n)
+				return new double[][] { cos.get(n), sin.get(n) };
+			top		= cos.size() - 1;
+			cos1	= cos.get(1);
+			cm		= cos.get(top - 1);
+			sm		= sin.get(top - 1);
+			c		= cos.get(top);
+			s		= sin.get(top);
+		}
+		for (int m = top; m < n; m++) {
+			double[][] next = recurrence(cos1, cm, sm, c, s);
+			cm	= c;
+			sm	= s;
+			c	= next[0];
+			s	= next[1];
+		}
+		return new double[][] { c, s };
+	}
+
+	/**
+	 * cos((n+1) theta) = 2 cos(theta) cos(n theta) - cos((n-1) theta), and
+	 * the same for sin.
+	 */
+	private static double[][] recurrence(double[] cos1, double[] cm, double[] sm, double[] c, double[] s) {
+		int			n		= cos1.length;
+		double[]	cp		= new double[n];
+		double[]	sp		= new double[n];
+		for (int k = 1; k < n; k++) {
+			double a = 2 * cos1[k];
+			cp[k]	= a * c[k] - cm[k];
+			sp[k]	= a * s[k] - sm[k];
+		}
+		return new double[][] { cp, sp };
+	}
+
+	private static class Key {
+
+		private final int		nx;
+		private final int		ny;
+		private final double	sizeX;
+		private final double	sizeY;
+
+		public Key(int nx, int ny, double sizeX, double sizeY) {
+			this.nx		= nx;
+			this.ny		= ny;
+			this.sizeX	= sizeX;
+			this.sizeY	= sizeY;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key))
+				return false;
+			Key k = (Key) o;
+			return nx == k.nx && ny == k.ny && Double.compare(sizeX, k.sizeX) == 0 && Double.compare(sizeY, k.sizeY) == 0;
+		}
+
+		@Override
+		public int hashCode() {
+			int h = nx;
+			h = 31 * h + ny;
+			h = 31 * h + Double.valueOf(sizeX).hashCode();
+			h = 31 * h + Double.valueOf(sizeY).hashCode();
+			return h;
+		}
+	}
+}
@@ -0,0 +1,181 @@
+/*
+ * Steer'n'Detect
+ * 
+ * Zsuzsanna Puspoki and Daniel Sage, Biomedical Imaging Group
+ * Ecole Polytechnique Federale de Lausanne (EPFL), Switzerland
+ * 
+ * Information: http://bigwww.epfl.ch/algorithms/steer_n_detect/
+ * 
+ * Conditions of use: You are free to use this software for research or
+ * educational purposes. In addition, we expect you to include adequate
+ * citations and acknowledgments whenever you present or publish results 
+ * that are based on it.
+ * 
+ * Reference: Z. Puspoki et al. submitted to Bioinformatics 2021.
+ */
+
+/*
+ * Copyright 2016-2021 Biomedical Imaging Group at the EPFL.
+ * 
+ * Steer'n'Detect is free software: you can redistribute it and/or modify it under 
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * Steer'n'Detect is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * Steer'n'Detect. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package steerabledetector.filter;
+
+import java.util.Arrays;
+
+import steerabledetector.detector.Parameters;
+import steerabledetector.image2d.ImageCartesian;
+import steerabledetector.image2d.ImageCartesianFloat;
+
+/**
+ * Responses of the harmonics of a steered analysis, kept after the search
+ * of the orientation to refine the angle at a sub-pixel position: the
+ * responses are interpolated bilinearly at the position and the angle is
+ * the maximum of the trigonometric polynomial built on them, in the range
+ * of angles of the analysis.
+ * 
+ * An instance holds working buffers, it should be used by one thread only.
+ */
+public class HarmonicResponses {
+
+	private ImageCartesian[]		fCI;
+	private ImageCartesianFloat[]	fCIFloat;
+	private InterleavedResponses	interleaved;
+	private int						nx;
+	private int						ny;
+	private int						nResponses;
+	private boolean					symmetric;
+	private double					referenceOrientation;
+	private TrigonometricPolynomial	polynomial;
+	private double					re[];
+	private double					im[];
+	private double					cornerRe[];
+	private double					cornerIm[];
+
+	void set(ImageCartesian[] fCI, ImageCartesianFloat[] fCIFloat, int nHarmonic, Parameters params) {
+		this.fCI				= fCI;
+		this.fCIFloat			= fCIFloat;
+		interleaved				= null;
+		nx						= fCI != null ? fCI[0].nx : fCIFloat[0].nx;
+		ny						= fCI != null ? fCI[0].ny : fCIFloat[0].ny;
+		nResponses				= fCI != null ? fCI.length : fCIFloat.length;
+		setParameters(nHarmonic, params);
+	}
+
+	/**
+	 * Responses of the fused mode, stored per pixel.
+	 */
+	void set(InterleavedResponses interleaved, int nHarmonic, Parameters params) {
+		fCI						= null;
+		fCIFloat				= null;
+		this.interleaved		= interleaved;
+		nx						= interleaved.getWidth();
+		ny						= interleaved.getHeight();
+		nResponses				= interleaved.getNumberOfResponses();
+		cornerRe				= new double[nResponses];
+		cornerIm				= new double[nResponses];
+		setParameters(nHarmonic, params);
+	}
+
+	private void setParameters(int nHarmonic, Parameters params) {
+		symmetric				= nResponses == nHarmonic + 1;
+		referenceOrientation	= params.referenceOrientation;
+		polynomial				= new TrigonometricPolynomial(nHarmonic, Math.PI * params.minAlpha / 180.0, Math.PI * params.maxAlpha / 180.0);
+		re						= new double[nResponses];
+		im						= new double[nResponses];
+	}
+
+	public boolean isAvailable() {
+		return fCI != null || fCIFloat != null || interleaved != null;
+	}
+
+	/**
+	 * Releases the responses.
+	 */
+	public void clear() {
+		fCI			= null;
+		fCIFloat	= null;
+		interleaved	= null;
+	}
+
+	/**
+	 * Angle in radians, with the reference orientation, of the maximum of the
+	 * steered response at (x, y), or NaN if the response is not positive.
+	 * The position is in the coordinates of the map of the detector, where
+	 * the responses are swapped by half of the size (see getReal).
+	 */
+	public double getAngle(double x, double y) {
+		int		x0	= (int) Math.floor(x);
+		int		y0	= (int) Math.floor(y);
+		double	u	= x - x0;
+		double	v	= y - y0;
+		double	w00	= (1 - u) * (1 - v);
+		double	w10	= u * (1 - v);
+		double	w01	= (1 - u) * v;
+		double	w11	= u * v;
+		int		i0	= swap(x0, nx);
+		int		i1	= swap(x0 + 1, nx);
+		int		j0	= swap(y0, ny) * nx;
+		int		j1	= swap(y0 + 1, ny) * nx;
+		int		k00	= i0 + j0;
+		int		k10	= i1 + j0;
+		int		k01	= i0 + j1;
+		int		k11	= i1 + j1;
+		if (interleaved != null) {
+			Arrays.fill(re, 0);
+			Arrays.fill(im, 0);
+			addCorner(k00, w00);
+			addCorner(k10, w10);
+			addCorner(k01, w01);
+			addCorner(k11, w11);
+		}
+		for (int n = 0; n < nResponses && interleaved == null; n++) {
+			if (fCIFloat != null) {
+				float r[] = fCIFloat[n].dataReel;
+				float i[] = fCIFloat[n].dataImag;
+				re[n] = w00 * r[k00] + w10 * r[k10] + w01 * r[k01] + w11 * r[k11];
+				im[n] = w00 * i[k00] + w10 * i[k10] + w01 * i[k01] + w11 * i[k11];
+			}
+			else {
+				double r[] = fCI[n].dataReel;
+				double i[] = fCI[n].dataImag;
+				re[n] = w00 * r[k00] + w10 * r[k10] + w01 * r[k01] + w11 * r[k11];
+				im[n] = w00 * i[k00] + w10 * i[k10] + w01 * i[k01] + w11 * i[k11];
+			}
+		}
+		if (symmetric)
+			polynomial.setFoldedHarmonics(re, im);
+		else
+			polynomial.setHarmonics(re, im);
+		double alpha = polynomial.maximize();
+		if (!(polynomial.getMaximum() > 0.0))
+			return Double.NaN;
+		alpha += referenceOrientation;
+		alpha -= 2 * Math.PI * Math.floor(alpha / (2 * Math.PI));
+		return alpha;
+	}
+
+	private void addCorner(int k, double w) {
+		interleaved.get(k, cornerRe, cornerIm);
+		for (int n = 0; n < nResponses; n++) {
+			re[n]	+= w * cornerRe[n];
+			im[n]	+= w * cornerIm[n];
+		}
+	}
+
+	private int swap(int a, int n) {
+		a = (a + n / 2) % n;
+		return a < 0 ? a + n : a;
+	}
+}
@@ -0,0 +1,142 @@
+/*
+ * Steer'n'Detect
+ * 
+ * Zsuzsanna Puspoki and Daniel Sage, Biomedical Imaging Group
+ * Ecole Polytechnique Federale de Lausanne (EPFL), Switzerland
+ * 
+ * Information: http://bigwww.epfl.ch/algorithms/steer_n_detect/
+ * 
+ * Conditions of use: You are free to use this software for research or
+ * educational purposes. In addition, we expect you to include adequate
+ * citations and acknowledgments whenever you present or publish results 
+ * that are based on it.
+ * 
+ * Reference: Z. Puspoki et al. submitted to Bioinformatics 2021.
+ */
+
+/*
+ * Copyright 2016-2021 Biomedical Imaging Group at the EPFL.
+ * 
+ * Steer'n'Detect is free software: you can redistribute it and/or modify it under 
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * Steer'n'Detect is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * Steer'n'Detect. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package steerabledetector.filter;
+
+import steerabledetector.image2d.ImageCartesian;
+import steerabledetector.image2d.ImageCartesianFloat;
+
+/**
+ * Responses of the harmonics stored per pixel, for the fused mode of the
+ * steered analysis: the real and imaginary parts of the nResponses
+ * responses of a pixel are interleaved and contiguous, the harmonic is the
+ * innermost index. The search of the orientation reads a pixel as one run
+ * of memory instead of one value in each of the images of the responses.
+ * 
+ * The image is stored by blocks of rows, one array per block, the index of
+ * an array stays below 2^31 for large images. The blocks are in double or
+ * in single precision, as the filter bank. The responses are written by
+ * put(), one harmonic per call; distinct harmonics can be written
+ * concurrently.
+ */
+class InterleavedResponses {
+
+	private static final int	BLOCK_VALUES	= 1 << 22;
+
+	private final int			nx;
+	private final int			ny;
+	private final int			nResponses;
+	private final int			rowsPerBlock;
+	private final double[][]	blocks;
+	private final float[][]		blocksFloat;
+
+	public InterleavedResponses(int nx, int ny, int nResponses, boolean single) {
+		this.nx			= nx;
+		this.ny			= ny;
+		this.nResponses	= nResponses;
+		rowsPerBlock	= Math.max(1, Math.min(ny, BLOCK_VALUES / (2 * nResponses * nx)));
+		int nblocks = (ny + rowsPerBlock - 1) / rowsPerBlock;
+		blocks		= single ? null : new double[nblocks][];
+		blocksFloat	= single ? new float[nblocks][] : null;
+		for (int b = 0; b < nblocks; b++) {
+			int size = 2 * nResponses * nx * Math.min(rowsPerBlock, ny - b * rowsPerBlock);
+			if (single)
+				blocksFloat[b] = new float[size];
+			else
+				blocks[b] = new double[size];
+		}
+	}
+
+	public int getWidth() {
+		return nx;
+	}
+
+	public int getHeight() {
+		return ny;
+	}
+
+	public int getNumberOfResponses() {
+		return nResponses;
+	}
+
+	/**
+	 * Stores the response of the index n, in the layout of ImageCartesian.
+	 */
+	public void put(int n, ImageCartesian response) {
+		double	re[]	= response.dataReel;
+		double	im[]	= response.dataImag;
+		for (int b = 0; b < blocks.length; b++) {
+			double	block[]	= blocks[b];
+			int		k0		= b * rowsPerBlock * nx;
+			for (int o = 2 * n, k = k0; o < block.length; o += 2 * nResponses, k++) {
+				block[o]		= re[k];
+				block[o + 1]	= im[k];
+			}
+		}
+	}
+
+	public void put(int n, ImageCartesianFloat response) {
+		float	re[]	= response.dataReel;
+		float	im[]	= response.dataImag;
+		for (int b = 0; b < blocksFloat.length; b++) {
+			float	block[]	= blocksFloat[b];
+			int		k0		= b * rowsPerBlock * nx;
+			for (int o = 2 * n, k = k0; o < block.length; o += 2 * nResponses, k++) {
+				block[o]		= re[k];
+				block[o + 1]	= im[k];
+			}
+		}
+	}
+
+	/**
+	 * Responses of the pixel k (index indX + nx * indY) in re and im.
+	 */
+	public void get(int k, double re[], double im[]) {
+		int	y	= k / nx;
+		int	b	= y / rowsPerBlock;
+		int	o	= 2 * nResponses * (k - b * rowsPerBlock * nx);
+		if (blocks != null) {
+			double block[] = blocks[b];
+			for (int n = 0; n < nResponses; n++, o += 2) {
+				re[n]	= block[o];
+				im[n]	= block[o + 1];
+			}
+		}
+		else {
+			float block[] = blocksFloat[b];
+			for (int n = 0; n < nResponses; n++, o += 2) {
+				re[n]	= block[o];
+				im[n]	= block[o + 1];
+			}
+		}
+	}
+}
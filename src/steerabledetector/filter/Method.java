@@ -32,11 +32,25 @@
 
 package steerabledetector.filter;
 
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import steerabledetector.Instrumentation;
+import steerabledetector.Instrumentation.Probe;
+import steerabledetector.Tools;
+import steerabledetector.detector.AngleEstimation;
 import steerabledetector.detector.Parameters;
+import steerabledetector.fftacademic.FFTPlanCache;
 import steerabledetector.gui.components.HTMLPane;
 import steerabledetector.gui.components.ProgressionBar;
 import steerabledetector.image2d.ImageCartesian;
 import steerabledetector.image2d.ImageCartesian.Domain;
+import steerabledetector.image2d.ImageCartesianFloat;
+import steerabledetector.image2d.Workspace;
 
 public abstract class Method {
 
@@ -46,45 +60,87 @@ public abstract class Method {
 	protected final double		templateSizeX;
 	protected final double		templateSizeY;
 
-	protected double[][]		rho_detector	= null;
-	protected double[][]		theta_detector	= null;
-	protected double[][]		rho_filter		= null;
-	protected double[][]		theta_filter	= null;
-	protected double[][]		rho_template	= null;
-	protected double[][]		theta_template	= null;
+	protected FrequencyGrid		grid_template;
 
-	protected double[][]		cos_detector	= null;
-	protected double[][]		sin_detector	= null;
-	protected double[][]		cos_filter		= null;
-	protected double[][]		sin_filter		= null;
-
-	protected double			pix_real;
-	protected double			pix_imag;
 	protected double[]			computePix;
-	private double				cosNT;
-	private double				sinNT;
 
 	private ProgressionBar		progress;
-	private boolean				stop			= false;
+	private volatile boolean	stop			= false;
 	private HTMLPane			info;
 
+	private double				radialError		= 0;
+
+	/**
+	 * Settings of one analysis, given down the calls rather than kept in
+	 * the model: a model is shared by the concurrent analyses of a batch or
+	 * of a stack. Out of an analysis, and for the fit of the model, the
+	 * filters are evaluated at the scale 1 of the template, without the
+	 * radial table, without instrumentation and without FilterBankCache
+	 * (DEFAULT).
+	 */
+	protected static class Analysis {
+
+		public static final Analysis	DEFAULT	= new Analysis(1.0, false, null, null);
+
+		public final double				scale;
+		public final boolean			radialTable;
+		public final Instrumentation	instrumentation;
+		public final FilterBankCache	cache;
+
+		public Analysis(double scale, boolean radialTable, Instrumentation instrumentation, FilterBankCache cache) {
+			this.scale				= scale;
+			this.radialTable		= radialTable;
+			this.instrumentation	= instrumentation;
+			this.cache				= cache;
+		}
+
+		public Analysis at(double scale) {
+			return new Analysis(scale, radialTable, instrumentation, cache);
+		}
+	}
+
 	protected Method(ProgressionBar progress, HTMLPane info, ImageCartesian template) {
 		this.progress	= progress;
 		this.info		= info;
 
 		templateCurrent	= new ImageCartesian(template);
-		templateCurrent	= templateCurrent.FFT();
+		templateCurrent	= templateCurrent.isRealImage() ? templateCurrent.realFFT() : templateCurrent.FFT();
 		templateCurrent.complexconjugate();
 		templateCurrent.removeAnisotropicFreq();
 		templateSizeX	= template.sizeXSpace;
 		templateSizeY	= template.sizeYSpace;
 		templateSize	= template.nx;
-		rho_template	= initRho(template);
-		theta_template	= initTheta(template);
+		grid_template	= FrequencyGrid.get(template.nx, template.ny, template.sizeXSpace, template.sizeYSpace);
 
 		computePix		= new double[2];
 	}
 
+	/**
+	 * Method on a template already in the Fourier domain (conjugated, without
+	 * the anisotropic frequencies), as restored from a model file.
+	 */
+	protected Method(ProgressionBar progress, HTMLPane info, ImageCartesian templateFourier, double sizeX, double sizeY) {
+		this.progress	= progress;
+		this.info		= info;
+
+		templateCurrent	= new ImageCartesian(templateFourier);
+		templateSizeX	= sizeX;
+		templateSizeY	= sizeY;
+		templateSize	= templateFourier.nx;
+		grid_template	= FrequencyGrid.get(templateFourier.nx, templateFourier.ny, sizeX, sizeY);
+
+		computePix		= new double[2];
+	}
+
+	/**
+	 * Messages to the journal, if any; the progression and the journal can
+	 * be null for a run without interface.
+	 */
+	protected void log(String content) {
+		if (info != null)
+			info.append("p", content);
+	}
+
 	public void stop() {
 		stop = true;
 	}
@@ -95,12 +151,47 @@ public abstract class Method {
 
 	protected abstract double[][] getCoefficients(int order);
 
-	protected abstract void getRadialValuePix(double rho, double b[][]);
+	protected abstract void getRadialValuePix(double rho, double b[][], double pix[]);
 
-	protected abstract void assureCnComputed(int order, boolean forDetector);
+	/**
+	 * Fits the coefficients of the model up to the order; the fit is
+	 * reported to the instrumentation, if not null.
+	 */
+	protected abstract void assureCnComputed(int order, boolean forDetector, Instrumentation instrumentation);
+
+	protected void assureCnComputed(int order, boolean forDetector) {
+		assureCnComputed(order, forDetector, null);
+	}
+
+	/**
+	 * Tabulated radial profile of the coefficients b up to rhoMax, or null if
+	 * the method has no table; the profile is then evaluated for each pixel.
+	 */
+	protected RadialTable getRadialTable(double[][] b, double rhoMax) {
+		return null;
+	}
+
+	public synchronized double getRadialTableError() {
+		return radialError;
+	}
+
+	/**
+	 * The table is used only if it agrees with the exact evaluation.
+	 */
+	private synchronized boolean acceptRadialTable(RadialTable table) {
+		radialError = Math.max(radialError, table.getError());
+		return table.getError() < 1e-9;
+	}
 
 	public abstract String getName();
 
+	/**
+	 * Size in pixels of the (square) template of the model.
+	 */
+	public int getTemplateSize() {
+		return templateSize;
+	}
+
 	public ImageCartesian getFilter(int order, ImageCartesian tofit) {
 		return getFilter(order, tofit.nx, tofit.ny, tofit.sizeXSpace, tofit.sizeYSpace);
 	}
@@ -110,13 +201,39 @@ public abstract class Method {
 	}
 
 	protected ImageCartesian getFilter(int order, int nx, int ny, double sX, double sY) {
-		assureCnComputed(order, false);
-		ImageCartesian filter = new ImageCartesian(nx, ny, sX, sY, ImageCartesian.Domain.FOURIER, "filter_n" + order);
-		rho_filter		= initRho(filter);
-		theta_filter	= initTheta(filter);
-		cos_filter		= computeCos(order, theta_filter, nx, ny);
-		sin_filter		= computeSin(order, theta_filter, nx, ny);
-		return getCoreFilter(order, 0., rho_filter, cos_filter, sin_filter, filter);
+		return addFilter(order, false, new ImageCartesian(nx, ny, sX, sY, ImageCartesian.Domain.FOURIER, "filter_n" + order), Analysis.DEFAULT);
+	}
+
+	/**
+	 * Filter of the pair of harmonics n and -n for a real image. The steering
+	 * only uses the real part of the responses, and the real part of the
+	 * response of -n steered at alpha is the real part of the response of the
+	 * filter conj(H_{-n}(-w)) steered as the harmonic n. The pair is then
+	 * given by one filter of order n with the radial profile
+	 * c_n + (-1)^n conj(c_{-n}). The order 0 is the filter of the harmonic 0.
+	 */
+	public ImageCartesian getFoldedFilter(int order, ImageCartesian tofit) {
+		return addFilter(order, true, new ImageCartesian(tofit.nx, tofit.ny, tofit.sizeXSpace, tofit.sizeYSpace, ImageCartesian.Domain.FOURIER, "filter_folded_n" + order), Analysis.DEFAULT);
+	}
+
+	/**
+	 * Adds the filter of the order n, folded or not, to the image filter in
+	 * the Fourier domain, which gives the size of the grid.
+	 */
+	private ImageCartesian addFilter(int order, boolean folded, ImageCartesian filter, Analysis analysis) {
+		assureCnComputed(order, false, analysis.instrumentation);
+		double[][] b = getCoefficients(order);
+		if (folded && order > 0) {
+			double[][]	bm		= getCoefficients(-order);
+			double		sign	= (order % 2 == 0 ? 1.0 : -1.0);
+			double[][]	pair	= new double[2][b[0].length];
+			for (int k = 0; k < b[0].length; k++) {
+				pair[0][k]	= b[0][k] + sign * bm[0][k];
+				pair[1][k]	= b[1][k] - sign * bm[1][k];
+			}
+			b = pair;
+		}
+		return getCoreFilter(order, 0., b, FrequencyGrid.get(filter.nx, filter.ny, filter.sizeXSpace, filter.sizeYSpace), filter, analysis);
 	}
 
 	public ImageCartesian getDetector(int N, double angle) {
@@ -135,21 +252,14 @@ public abstract class Method {
 
 		assureCnComputed(N, true);
 
-		ImageCartesian detector = new ImageCartesian(nx, ny, sX, sY, Domain.FOURIER, "Detector");
+		ImageCartesian	detector	= new ImageCartesian(nx, ny, sX, sY, Domain.FOURIER, "Detector");
+		FrequencyGrid	grid		= FrequencyGrid.get(nx, ny, sX, sY);
 
-		rho_detector	= initRho(detector);
-		theta_detector	= initTheta(detector);
-		cos_detector	= computeCos(0, theta_detector, detector.nx, detector.ny);
-		sin_detector	= computeSin(0, theta_detector, detector.nx, detector.ny);
-		getCoreFilter(0, angle, rho_detector, cos_detector, sin_detector, detector);
+		getCoreFilter(0, angle, grid, detector);
 
 		for (int order = 1; order <= N; order++) {
-			cos_detector	= computeCos(order, theta_detector, detector.nx, detector.ny);
-			sin_detector	= computeSin(order, theta_detector, detector.nx, detector.ny);
-			getCoreFilter(order, angle, rho_detector, cos_detector, sin_detector, detector);
-			// cos_detector = computeCos(-order, theta_detector, detector.nx, detector.ny);
-			sin_detector = computeSin(-order, theta_detector, detector.nx, detector.ny);
-			getCoreFilter(-order, angle, rho_detector, cos_detector, sin_detector, detector);
+			getCoreFilter(order, angle, grid, detector);
+			getCoreFilter(-order, angle, grid, detector);
 		}
 
 		detector.name = "Detector-" + getName() + "-N" + N;
@@ -171,36 +281,292 @@ public abstract class Method {
 	}
 
 	public ImageCartesian steeredAnalysis(ProgressionBar progress, ImageCartesian imageToAnalyze, int nHarmonic, Parameters params) {
+		return steeredAnalysis(progress, imageToAnalyze, nHarmonic, params, (HarmonicResponses) null);
+	}
 
-		// double angleMin = Math.PI * params.minAlpha / 180.0;
-		double			accuraryRequested	= Math.PI * params.deltaAlpha / 180.0;
-		double			angleMin			= Math.PI * params.minAlpha / 180.0;
-		double			deltaAngle			= Math.PI * params.deltaAlpha / 180.0;
-		ImageCartesian	AB					= new ImageCartesian(imageToAnalyze.nx, imageToAnalyze.ny, Domain.SPACE);
-		AB.name = "AB";
-
-		ImageCartesian[] fCI = filter(imageToAnalyze, nHarmonic, params.gamma);
-		if (fCI == null)
-			return AB;
-
-		double	cos[][]	= getTableCos(params, nHarmonic);
-		double	sin[][]	= getTableSin(params, nHarmonic);
-		int		nangles	= cos[0].length - 1;
-		int		npixels	= AB.nx * AB.ny;
-		int		coarse	= 1;
-		if (params.coarseToFine)
-			coarse = (int) Math.max(1, Math.floor(nangles / (2.0 * nHarmonic)));
-		info.append("p", "Requested Range [" + params.minAlpha + ", " + params.maxAlpha + "] step: " + params.deltaAlpha);
-
-		for (int k = 0; k < npixels; k++) {
+	/**
+	 * Steered analysis which keeps the responses of the harmonics in
+	 * responses, if not null, for the refinement of the angles.
+	 */
+	public ImageCartesian steeredAnalysis(ProgressionBar progress, ImageCartesian imageToAnalyze, int nHarmonic, Parameters params, HarmonicResponses responses) {
+		return steeredAnalysis(progress, imageToAnalyze, nHarmonic, params, new double[] { 1.0 }, responses)[0];
+	}
+
+	/**
+	 * Steered analysis at several scales, one result per scale. The filter
+	 * bank of the scale s is s H(s w): the filters enlarged s times, with
+	 * the same energy, so the amplitudes of the scales are comparable and,
+	 * at the position of a pattern, the largest is at the scale of the
+	 * pattern. All the scales share the FFT of the image and the workspace.
+	 */
+	public ImageCartesian[] steeredAnalysis(ProgressionBar progress, ImageCartesian imageToAnalyze, int nHarmonic, Parameters params, double scales[]) {
+		return steeredAnalysis(progress, imageToAnalyze, nHarmonic, params, scales, null);
+	}
+
+	private ImageCartesian[] steeredAnalysis(ProgressionBar progress, ImageCartesian imageToAnalyze, int nHarmonic, Parameters params, double scales[], HarmonicResponses responses) {
+
+		// without the workspace of a caller, the analysis has its own
+		Workspace workspace = params.workspace == null ? new Workspace() : params.workspace;
+		Analysis analysis = getAnalysis(params);
+
+		// The forward FFT runs first on the calling thread: it plans the FFT
+		// of this geometry, the concurrent inverse FFTs take planned objects
+		// from the FFTPlanCache.
+		Probe					probe		= Instrumentation.start(analysis.instrumentation, "Forward FFT");
+		ImageCartesian			inputFFT	= null;
+		ImageCartesianFloat		inputFloat	= null;
+		if (params.singlePrecision)
+			inputFloat = new ImageCartesianFloat(imageToAnalyze, workspace).realFFTInPlace(workspace);
+		else
+			inputFFT = workspace.copy(imageToAnalyze).realFFTInPlace(workspace);
+		Instrumentation.stop(probe);
+
+		ImageCartesian[] AB = new ImageCartesian[scales.length];
+		try {
+			for (int s = 0; s < scales.length; s++) {
+				if (scales.length > 1)
+					log("Scale " + String.format("%1.3f", scales[s]) + " (" + (s + 1) + "/" + scales.length + ")");
+				AB[s] = analyze(progress, imageToAnalyze, inputFFT, inputFloat, nHarmonic, params, responses, workspace, analysis.at(scales[s]));
+			}
+		}
+		finally {
+			workspace.release(inputFFT);
+			workspace.release(inputFloat);
+		}
+
+		log(FFTPlanCache.getStatistics());
+		log(workspace.getStatistics());
+		if (analysis.cache != null)
+			log(analysis.cache.getStatistics());
+		return AB;
+	}
+
+	/**
+	 * Responses of the filter bank alone, the stage of steeredAnalysis
+	 * before the search of the orientations, in double precision: the
+	 * harmonics -N..N, or the folded filters 0..N in the symmetric mode (see
+	 * filter). Null if the computation has been stopped.
+	 */
+	public ImageCartesian[] filterBankResponses(ImageCartesian imageToAnalyze, int nHarmonic, Parameters params) {
+		Workspace		workspace	= params.workspace == null ? new Workspace() : params.workspace;
+		ImageCartesian	inputFFT	= workspace.copy(imageToAnalyze).realFFTInPlace(workspace);
+		try {
+			return filter(imageToAnalyze, inputFFT, nHarmonic, params, workspace, null, getAnalysis(params));
+		}
+		finally {
+			workspace.release(inputFFT);
+		}
+	}
+
+	/**
+	 * Settings of an analysis at the scale 1; the filters are cached only
+	 * within the run of the caller.
+	 */
+	private Analysis getAnalysis(Parameters params) {
+		FilterBankCache cache = params.filterBankCache != null && params.filterBankCache.isEnabled() ? params.filterBankCache : null;
+		return new Analysis(1.0, params.radialTable, params.instrumentation, cache);
+	}
+
+	/**
+	 * Filter bank and search of the orientations at the scale of the
+	 * analysis, on the spectrum of the image in double (inputFFT) or in
+	 * single precision (inputFloat).
+	 */
+	private ImageCartesian analyze(ProgressionBar progress, ImageCartesian imageToAnalyze, ImageCartesian inputFFT, ImageCartesianFloat inputFloat, int nHarmonic, Parameters params, HarmonicResponses responses, Workspace workspace, Analysis analysis) {
+		ImageCartesian AB = workspace.getImage(imageToAnalyze.nx, imageToAnalyze.ny, 1, 1, Domain.SPACE, "AB");
+
+		// in the fused mode, each response is stored per pixel as soon as it
+		// is computed and its image goes back to the workspace
+		int						nResponses	= params.symmetric ? nHarmonic + 1 : 2 * nHarmonic + 1;
+		InterleavedResponses	interleaved	= params.fused ? new InterleavedResponses(AB.nx, AB.ny, nResponses, params.singlePrecision) : null;
+		Steering				steering;
+		ImageCartesian[]		fCI			= null;
+		ImageCartesianFloat[]	fCIFloat	= null;
+		if (params.singlePrecision) {
+			fCIFloat = filterSingle(imageToAnalyze, inputFloat, nHarmonic, params, workspace, interleaved, analysis);
+			if (fCIFloat == null)
+				return AB;
+			steering = new Steering(progress, AB, null, fCIFloat, interleaved, nHarmonic, params, analysis.instrumentation);
+		}
+		else {
+			fCI = filter(imageToAnalyze, inputFFT, nHarmonic, params, workspace, interleaved, analysis);
+			if (fCI == null)
+				return AB;
+			steering = new Steering(progress, AB, fCI, null, interleaved, nHarmonic, params, analysis.instrumentation);
+		}
+		if (responses != null && interleaved != null)
+			responses.set(interleaved, nHarmonic, params);
+		else if (responses != null)
+			responses.set(fCI, fCIFloat, nHarmonic, params);
+
+		if (params.radialTable)
+			log("Radial table: max relative error " + String.format("%1.2e", getRadialTableError()));
+		log("Requested Range [" + params.minAlpha + ", " + params.maxAlpha + "] step: " + params.deltaAlpha);
+		if (params.multithread)
+			steering.runParallel(params.getNumberOfThreads());
+		else
+			steering.run(0, AB.ny, true);
+		if (params.angleEstimation == AngleEstimation.ANALYTIC && !stop)
+			steering.reportAccuracy(1000);
+		// the responses kept for the refinement are not returned to the workspace
+		if (responses == null) {
+			for (int k = 0; fCI != null && k < fCI.length; k++)
+				workspace.release(fCI[k]);
+			for (int k = 0; fCIFloat != null && k < fCIFloat.length; k++)
+				workspace.release(fCIFloat[k]);
+		}
+		return AB;
+	}
+
+	/**
+	 * Search of the best orientation, pixel per pixel, over a range of rows.
+	 * The rows are independent, they can be processed in parallel by bands
+	 * and the result does not depend on the number of bands. The responses
+	 * of the harmonics are in double (fCI) or in single precision (fCIFloat),
+	 * or in the fused mode, stored per pixel (interleaved); they are gathered
+	 * per pixel in double before the search.
+	 */
+	private class Steering {
+
+		private final ProgressionBar		progress;
+		private final ImageCartesian		AB;
+		private final ImageCartesian[]		fCI;
+		private final ImageCartesianFloat[]	fCIFloat;
+		private final InterleavedResponses	interleaved;
+		private final int					nResponses;
+		private final Parameters			params;
+		private final double				cos[];
+		private final double				sin[];
+		private final int					nangles;
+		private final int					coarse;
+		private final double				accuraryRequested;
+		private final double				angleMin;
+		private final double				deltaAngle;
+		private final double				angleMax;
+		private final int					nHarmonic;
+		private final boolean				analytic;
+		private final boolean				symmetric;
+		private final Instrumentation		instrumentation;
+
+		public Steering(ProgressionBar progress, ImageCartesian AB, ImageCartesian[] fCI, ImageCartesianFloat[] fCIFloat, InterleavedResponses interleaved, int nHarmonic, Parameters params, Instrumentation instrumentation) {
+			this.progress		= progress;
+			this.AB				= AB;
+			this.fCI			= fCI;
+			this.fCIFloat		= fCIFloat;
+			this.interleaved	= interleaved;
+			this.params			= params;
+			this.instrumentation	= instrumentation;
+			nResponses			= fCI != null ? fCI.length : fCIFloat.length;
+			accuraryRequested	= Math.PI * params.deltaAlpha / 180.0;
+			angleMin			= Math.PI * params.minAlpha / 180.0;
+			deltaAngle			= Math.PI * params.deltaAlpha / 180.0;
+			angleMax			= Math.PI * params.maxAlpha / 180.0;
+			this.nHarmonic		= nHarmonic;
+			analytic			= params.angleEstimation == AngleEstimation.ANALYTIC;
+			symmetric			= nResponses == nHarmonic + 1;
+			double tables[][]	= getTables(params, nHarmonic, symmetric);
+			cos					= tables[0];
+			sin					= tables[1];
+			nangles				= cos.length / nResponses - 1;
+			if (params.coarseToFine)
+				coarse = (int) Math.max(1, Math.floor(nangles / (2.0 * nHarmonic)));
+			else
+				coarse = 1;
+		}
+
+		public void runParallel(int nThreads) {
+			int								rows	= Math.max(1, (int) Math.ceil(AB.ny / (4.0 * nThreads)));
+			int								nbands	= (AB.ny + rows - 1) / rows;
+			final AtomicInteger				done	= new AtomicInteger(0);
+			ArrayList<Callable<Boolean>>	bands	= new ArrayList<Callable<Boolean>>();
+			for (int b = 0; b < nbands; b++) {
+				final int	rowStart	= b * rows;
+				final int	rowEnd		= Math.min(AB.ny, rowStart + rows);
+				bands.add(new Callable<Boolean>() {
+					@Override
+					public Boolean call() {
+						boolean completed = run(rowStart, rowEnd, false);
+						int count = done.incrementAndGet();
+						if (progress != null)
+							progress.progress("Band " + count + "/" + nbands, count * 100.0 / nbands);
+						return completed;
+					}
+				});
+			}
+			ForkJoinPool pool = new ForkJoinPool(nThreads);
+			try {
+				Tools.getResults(pool.invokeAll(bands));
+			}
+			catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				stop = true;
+			}
+			finally {
+				pool.shutdown();
+			}
+		}
+
+		public boolean run(int rowStart, int rowEnd, boolean reportRows) {
+			Probe probe = Instrumentation.start(instrumentation, "Angle search");
+			try {
+				return search(rowStart, rowEnd, reportRows);
+			}
+			finally {
+				Instrumentation.stop(probe);
+			}
+		}
+
+		private boolean search(int rowStart, int rowEnd, boolean reportRows) {
+			double					result[]	= new double[2];
+			double					re[]		= new double[nResponses];
+			double					im[]		= new double[nResponses];
+			TrigonometricPolynomial	polynomial	= analytic ? new TrigonometricPolynomial(nHarmonic, angleMin, angleMax) : null;
+			for (int k = rowStart * AB.nx; k < rowEnd * AB.nx; k++) {
+				gather(k, re, im);
+				if (analytic)
+					steerAnalytic(polynomial, re, im, result);
+				else
+					steerGrid(k, re, im, result);
+				AB.dataReel[k]	= result[0];
+				AB.dataImag[k]	= periodize(result[1] + params.referenceOrientation, 2 * Math.PI);
+				if (stop)
+					return false;
+				if (reportRows && progress != null && k % AB.nx == 0) {
+					int y = k / AB.nx;
+					progress.progress("Row " + y, y * 100.0 / AB.ny);
+				}
+			}
+			return true;
+		}
+
+		private void gather(int k, double re[], double im[]) {
+			if (interleaved != null) {
+				interleaved.get(k, re, im);
+			}
+			else if (fCIFloat != null) {
+				for (int n = 0; n < nResponses; n++) {
+					re[n]	= fCIFloat[n].dataReel[k];
+					im[n]	= fCIFloat[n].dataImag[k];
+				}
+			}
+			else {
+				for (int n = 0; n < nResponses; n++) {
+					re[n]	= fCI[n].dataReel[k];
+					im[n]	= fCI[n].dataImag[k];
+				}
+			}
+		}
+
+		private void steerGrid(int k, double re[], double im[], double result[]) {
 			int		argmax	= 0;
-			double	max		= AB.dataReel[k];
+			double	max		= 0.0;
 			if (k == 0)
-				info.append("p", "Initial loop [0, " + nangles + "] step: " + coarse);
+				log("Initial loop [0, " + nangles + "] step: " + coarse);
 			for (int a = 0; a <= nangles; a += coarse) {
-				double sum = 0.0;
-				for (int n = 0; n < cos.length; n++)
-					sum += fCI[n].dataReel[k] * cos[n][a] - fCI[n].dataImag[k] * sin[n][a];
+				int		o	= a * nResponses;
+				double	sum	= 0.0;
+				for (int n = 0; n < nResponses; n++)
+					sum += re[n] * cos[o + n] - im[n] * sin[o + n];
 				if (max < sum) {
 					max		= sum;
 					argmax	= a;
@@ -213,12 +579,12 @@ public abstract class Method {
 					int		argmaxFine	= 0;
 					double	maxFine		= -Double.MAX_VALUE;
 					if (k == 0)
-						info.append("p", "Fine loop [" + (argmax - fine) + ", " + (argmax + fine) + "] step: " + fine);
+						log("Fine loop [" + (argmax - fine) + ", " + (argmax + fine) + "] step: " + fine);
 					for (int a = argmax - fine; a <= argmax + fine; a += fine) {
-						int		ap	= periodize(a, nangles);
+						int		o	= periodize(a, nangles) * nResponses;
 						double	sum	= 0.0;
-						for (int n = 0; n < cos.length; n++)
-							sum += fCI[n].dataReel[k] * cos[n][ap] - fCI[n].dataImag[k] * sin[n][ap];
+						for (int n = 0; n < nResponses; n++)
+							sum += re[n] * cos[o + n] - im[n] * sin[o + n];
 						if (maxFine < sum) {
 							maxFine		= sum;
 							argmaxFine	= a;
@@ -228,77 +594,312 @@ public abstract class Method {
 					max		= maxFine;
 				}
 			}
-			AB.dataReel[k]	= max;
-			AB.dataImag[k]	= periodize(angleMin + argmax * deltaAngle + params.referenceOrientation, 2 * Math.PI);
-			if (stop)
-				return AB;
-			if (k % AB.nx == 0) {
-				int y = k / AB.nx;
-				progress.progress("Row " + y, y * 100.0 / AB.ny);
+			result[0]	= max;
+			result[1]	= angleMin + argmax * deltaAngle;
+		}
+
+		/**
+		 * Maximum of the steered response found on the trigonometric
+		 * polynomial; as for the grid search, a response that is negative for
+		 * all angles gives 0 at angleMin.
+		 */
+		private void steerAnalytic(TrigonometricPolynomial polynomial, double re[], double im[], double result[]) {
+			if (symmetric)
+				polynomial.setFoldedHarmonics(re, im);
+			else
+				polynomial.setHarmonics(re, im);
+			double alpha = polynomial.maximize();
+			if (polynomial.getMaximum() > 0.0) {
+				result[0]	= polynomial.getMaximum();
+				result[1]	= alpha;
+			}
+			else {
+				result[0]	= 0.0;
+				result[1]	= angleMin;
 			}
 		}
-		return AB;
+
+		/**
+		 * Compares the analytic estimator to the grid search on a subset of
+		 * pixels: difference of angles and gain of response.
+		 */
+		public void reportAccuracy(int nsamples) {
+			int						stride		= Math.max(1, AB.nx * AB.ny / nsamples);
+			double					grid[]		= new double[2];
+			double					exact[]		= new double[2];
+			double					re[]		= new double[nResponses];
+			double					im[]		= new double[nResponses];
+			TrigonometricPolynomial	polynomial	= new TrigonometricPolynomial(nHarmonic, angleMin, angleMax);
+			double					sumAngle	= 0.0;
+			double					maxAngle	= 0.0;
+			double					sumGain		= 0.0;
+			int						worse		= 0;
+			int						count		= 0;
+			for (int k = 1; k < AB.nx * AB.ny; k += stride) {
+				gather(k, re, im);
+				steerGrid(k, re, im, grid);
+				steerAnalytic(polynomial, re, im, exact);
+				double d = Math.abs(periodize(exact[1] - grid[1], 2 * Math.PI));
+				d = Math.min(d, 2 * Math.PI - d) * 180.0 / Math.PI;
+				sumAngle	+= d;
+				maxAngle	= Math.max(maxAngle, d);
+				if (grid[0] > 0)
+					sumGain += (exact[0] - grid[0]) / grid[0];
+				if (exact[0] < grid[0] - 1e-12 * Math.abs(grid[0]))
+					worse++;
+				count++;
+			}
+			log("Analytic vs grid search on " + count + " pixels");
+			log("Angle difference: mean " + String.format("%3.4f", sumAngle / count) + " max " + String.format("%3.4f", maxAngle) + " degrees");
+			log("Response gain: mean " + String.format("%3.6f", sumGain / count) + ", lower than grid: " + worse + " pixels");
+		}
+	}
+
+	/**
+	 * Responses of the harmonics -N..N stored at the index n+N, or in the
+	 * symmetric mode, responses of the folded filters 0..N stored at the index
+	 * n (see getFoldedFilter). The image to analyze is real, inputFFT is its
+	 * spectrum.
+	 */
+	private ImageCartesian[] filter(final ImageCartesian input, final ImageCartesian inputFFT, int nHarmonic, Parameters params, final Workspace workspace, final InterleavedResponses interleaved, final Analysis analysis) {
+		final Whitening			w2gamma		= new Whitening(input, params.gamma, analysis.scale);
+		final int				nMin		= params.symmetric ? 0 : -nHarmonic;
+		final ImageCartesian[]	fCI			= new ImageCartesian[nHarmonic - nMin + 1];
+
+		FilterTask task = new FilterTask() {
+			@Override
+			public void filter(int order) {
+				ImageCartesian response = filterHarmonic(order, nMin == 0, input, inputFFT, w2gamma, workspace, analysis);
+				if (interleaved == null) {
+					fCI[order - nMin] = response;
+					return;
+				}
+				interleaved.put(order - nMin, response);
+				workspace.release(response);
+			}
+		};
+		// stopped or failed, the responses already computed go back to the workspace
+		boolean completed = false;
+		try {
+			completed = filterBank(nMin, nHarmonic, params, analysis, input.nx * input.ny, 8, task);
+		}
+		finally {
+			for (int k = 0; !completed && k < fCI.length; k++)
+				workspace.release(fCI[k]);
+		}
+		return completed ? fCI : null;
+	}
+
+	/**
+	 * Same as filter() with the spectrum of the image and the responses in
+	 * single precision; the filters are computed in double and the products
+	 * are rounded once.
+	 */
+	private ImageCartesianFloat[] filterSingle(final ImageCartesian input, final ImageCartesianFloat inputFFT, int nHarmonic, Parameters params, final Workspace workspace, final InterleavedResponses interleaved, final Analysis analysis) {
+		final Whitening				w2gamma		= new Whitening(input, params.gamma, analysis.scale);
+		final int					nMin		= params.symmetric ? 0 : -nHarmonic;
+		final ImageCartesianFloat[]	fCI			= new ImageCartesianFloat[nHarmonic - nMin + 1];
+
+		FilterTask task = new FilterTask() {
+			@Override
+			public void filter(int order) {
+				boolean				pooled	= analysis.cache == null;
+				ImageCartesian		filter	= getBankFilter(order, nMin == 0, input, w2gamma, pooled ? workspace : null, analysis);
+				Probe				probe	= Instrumentation.start(analysis.instrumentation, "Inverse FFT");
+				ImageCartesianFloat	product	= workspace.copy(inputFFT);
+				product.pointWiseMult(filter);
+				if (pooled)
+					workspace.release(filter);
+				product.inverseFFTInPlace(workspace);
+				Instrumentation.stop(probe);
+				if (interleaved == null) {
+					fCI[order - nMin] = product;
+					return;
+				}
+				interleaved.put(order - nMin, product);
+				workspace.release(product);
+			}
+		};
+		// stopped or failed, the responses already computed go back to the workspace
+		boolean completed = false;
+		try {
+			completed = filterBank(nMin, nHarmonic, params, analysis, input.nx * input.ny, 4, task);
+		}
+		finally {
+			for (int k = 0; !completed && k < fCI.length; k++)
+				workspace.release(fCI[k]);
+		}
+		return completed ? fCI : null;
 	}
 
-	private ImageCartesian[] filter(ImageCartesian imageToAnalyze, int nHarmonic, double gamma) {
-		ImageCartesian		input		= new ImageCartesian(imageToAnalyze);
-		ImageCartesian		inputFFT	= input.FFT();
-		ImageCartesian[]	fCI			= new ImageCartesian[2 * nHarmonic + 1];
+	/**
+	 * Whitening filter multiply by |w|^{2*gamma}, null if gamma is 0. It is
+	 * computed at the first request, a warm filter bank does not need it.
+	 */
+	private class Whitening {
+
+		private final ImageCartesian	input;
+		private final double			gamma;
+		private final double			scale;
+		private ImageCartesian			w2gamma		= null;
+		private boolean					computed	= false;
+
+		public Whitening(ImageCartesian input, double gamma, double scale) {
+			this.input	= input;
+			this.gamma	= gamma;
+			this.scale	= scale;
+		}
 
-		ImageCartesian		w2gamma		= null;
-		if (gamma > 0) {
-			// Whitening filter multiply by |w|^{2*gamma}
+		public synchronized ImageCartesian get() {
+			if (computed || gamma <= 0)
+				return w2gamma;
 			w2gamma = new ImageCartesian(input.nx, input.ny, input.sizeXSpace, input.sizeYSpace, Domain.FOURIER, "test");
-			double fact = (templateSizeX / templateSize) / (input.sizeXSpace / input.nx);
+			double fact = scale * (templateSizeX / templateSize) / (input.sizeXSpace / input.nx);
 			for (int i = 0; i < input.nx; i++) {
 				for (int j = 0; j < input.ny; j++) {
 					w2gamma.addPixel(i, j, Math.pow(fact * w2gamma.indexToRho(i, j), 2.0 * gamma), 0.0);
 				}
 			}
+			computed = true;
+			return w2gamma;
 		}
+	}
 
-		for (int n = -nHarmonic; n <= nHarmonic; n++) {
-			progress.progress("Filter " + n, ((n + nHarmonic) * 100.0 / (2 * nHarmonic)));
-			if (stop)
-				return null;
-			ImageCartesian filter = getFilter(n, input);
-			if (gamma > 0)
-				filter.pointWiseMult2(w2gamma, inputFFT);
-			else
-				filter.pointWiseMult(inputFFT);
-			fCI[n + nHarmonic] = filter.inverseFFT();
-		}
-		return fCI;
+	/**
+	 * Filter of the order n multiplied by the whitening, from the
+	 * FilterBankCache if possible. The filter can be shared by the cache, it
+	 * is not modified. With a workspace, the cache is not used: the filter
+	 * is synthesized in arrays of the workspace and it belongs to the caller,
+	 * who can compute in place into it.
+	 */
+	private ImageCartesian getBankFilter(int n, boolean folded, ImageCartesian input, Whitening whitening, Workspace workspace, Analysis analysis) {
+		ImageCartesian filter = null;
+		if (workspace == null && analysis.cache != null)
+			filter = analysis.cache.get(this, n, folded, input, analysis.scale, whitening.gamma, analysis.radialTable);
+		if (filter != null)
+			return filter;
+		Probe probe = Instrumentation.start(analysis.instrumentation, "Filter synthesis n=" + n);
+		if (workspace == null)
+			filter = addFilter(n, folded, new ImageCartesian(input.nx, input.ny, input.sizeXSpace, input.sizeYSpace, Domain.FOURIER, "filter_n" + n), analysis);
+		else
+			filter = addFilter(n, folded, workspace.getImage(input.nx, input.ny, input.sizeXSpace, input.sizeYSpace, Domain.FOURIER, "filter_n" + n), analysis);
+		ImageCartesian w2gamma = whitening.get();
+		if (w2gamma != null)
+			filter.pointWiseMult(w2gamma);
+		Instrumentation.stop(probe);
+		if (workspace == null && analysis.cache != null)
+			analysis.cache.put(this, n, folded, input, analysis.scale, whitening.gamma, analysis.radialTable, filter);
+		return filter;
 	}
 
-	private double[][] getTableCos(Parameters params, int nHarmonic) {
-		double	angleMin	= Math.PI * params.minAlpha / 180.0;
-		double	angleMax	= Math.PI * params.maxAlpha / 180.0;
-		double	deltaAngle	= Math.PI * params.deltaAlpha / 180.0;
-		int		nangles		= (int) Math.ceil((angleMax - angleMin) / deltaAngle);
-		double	cos[][]		= new double[2 * nHarmonic + 1][nangles + 1];
-		for (int a = 0; a <= nangles; a++) {
-			double alpha = angleMin + a * deltaAngle;
-			for (int n = -nHarmonic; n <= nHarmonic; n++) {
-				cos[n + nHarmonic][a] = Math.cos(-n * alpha);
+	/**
+	 * Response of the harmonic n. Without the FilterBankCache, the product
+	 * and the inverse FFT are computed in the arrays of the filter.
+	 */
+	private ImageCartesian filterHarmonic(int n, boolean folded, ImageCartesian input, ImageCartesian inputFFT, Whitening w2gamma, Workspace workspace, Analysis analysis) {
+		boolean			pooled		= analysis.cache == null;
+		ImageCartesian	filter		= getBankFilter(n, folded, input, w2gamma, pooled ? workspace : null, analysis);
+		Probe			probe		= Instrumentation.start(analysis.instrumentation, "Inverse FFT");
+		ImageCartesian	response	= pooled ? filter : workspace.getImage(input.nx, input.ny, input.sizeXSpace, input.sizeYSpace, Domain.FOURIER, "response_n" + n);
+		filter.pointWiseMult(inputFFT, response).inverseFFTInPlace(workspace);
+		Instrumentation.stop(probe);
+		return response;
+	}
+
+	private interface FilterTask {
+		public void filter(int order);
+	}
+
+	/**
+	 * Runs the task for the orders nMin..nHarmonic, in sequence or
+	 * concurrently; returns false if the computation has been stopped. The
+	 * failure of a task is rethrown once all the tasks are done.
+	 */
+	private boolean filterBank(final int nMin, final int nHarmonic, Parameters params, Analysis analysis, int npixels, int bytesPerValue, final FilterTask task) {
+		final int nFilters = nHarmonic - nMin + 1;
+		assureCnComputed(nHarmonic, false, analysis.instrumentation);
+		if (params.multithread) {
+			int workers = getNumberOfFilterWorkers(params.getNumberOfThreads(), npixels, nFilters, bytesPerValue);
+			log("Filter bank: " + workers + " concurrent harmonics");
+			final AtomicInteger				done	= new AtomicInteger(0);
+			ArrayList<Callable<Boolean>>	tasks	= new ArrayList<Callable<Boolean>>();
+			for (int n = nMin; n <= nHarmonic; n++) {
+				final int order = n;
+				tasks.add(new Callable<Boolean>() {
+					@Override
+					public Boolean call() {
+						if (stop)
+							return false;
+						task.filter(order);
+						int count = done.incrementAndGet();
+						if (progress != null)
+							progress.progress("Filter " + count + "/" + nFilters, count * 100.0 / nFilters);
+						return true;
+					}
+				});
+			}
+			ExecutorService executor = Executors.newFixedThreadPool(workers);
+			try {
+				Tools.getResults(executor.invokeAll(tasks));
+			}
+			catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				stop = true;
+			}
+			finally {
+				executor.shutdown();
 			}
 		}
-		return cos;
+		else {
+			for (int n = nMin; n <= nHarmonic; n++) {
+				if (progress != null)
+					progress.progress("Filter " + n, ((n - nMin) * 100.0 / (nHarmonic - nMin)));
+				if (stop)
+					return false;
+				task.filter(n);
+			}
+		}
+		return !stop;
+	}
+
+	/**
+	 * Number of harmonics filtered at the same time. Each harmonic in flight
+	 * holds about 4 full-size double arrays (filter and buffers of the FFT)
+	 * and the filter bank keeps 2 arrays of bytesPerValue per harmonic until
+	 * the end; the number of workers is reduced to fit in the heap that
+	 * remains.
+	 */
+	private int getNumberOfFilterWorkers(int nThreads, int npixels, int nFilters, int bytesPerValue) {
+		Runtime	runtime		= Runtime.getRuntime();
+		long	image		= 8L * npixels;
+		long	available	= runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory()) - 2L * bytesPerValue * npixels * nFilters;
+		long	cap			= available / (4L * image);
+		return (int) Math.max(1, Math.min(Math.min(nThreads, nFilters), cap));
 	}
 
-	private double[][] getTableSin(Parameters params, int nHarmonic) {
+	/**
+	 * Tables of cos(-n alpha) and sin(-n alpha) for the angles of the grid
+	 * search, stored by angle: the values of the responses 0..nResponses-1
+	 * of the angle a are at a * nResponses + n, contiguous for the inner loop
+	 * on the harmonics.
+	 */
+	private double[][] getTables(Parameters params, int nHarmonic, boolean symmetric) {
 		double	angleMin	= Math.PI * params.minAlpha / 180.0;
 		double	angleMax	= Math.PI * params.maxAlpha / 180.0;
 		double	deltaAngle	= Math.PI * params.deltaAlpha / 180.0;
 		int		nangles		= (int) Math.ceil((angleMax - angleMin) / deltaAngle);
-		double	sin[][]		= new double[2 * nHarmonic + 1][nangles + 1];
+		int		nMin		= symmetric ? 0 : -nHarmonic;
+		int		nResponses	= nHarmonic - nMin + 1;
+		double	cos[]		= new double[(nangles + 1) * nResponses];
+		double	sin[]		= new double[(nangles + 1) * nResponses];
 		for (int a = 0; a <= nangles; a++) {
 			double alpha = angleMin + a * deltaAngle;
-			for (int n = -nHarmonic; n <= nHarmonic; n++) {
-				sin[n + nHarmonic][a] = Math.sin(-n * alpha);
+			for (int n = nMin; n <= nHarmonic; n++) {
+				cos[a * nResponses + n - nMin]	= Math.cos(-n * alpha);
+				sin[a * nResponses + n - nMin]	= Math.sin(-n * alpha);
 			}
 		}
-		return sin;
+		return new double[][] { cos, sin };
 	}
 
 	private int periodize(int a, int period) {
@@ -317,70 +918,69 @@ public abstract class Method {
 		return a;
 	}
 
-	protected ImageCartesian getCoreFilter(int order, double alpha, double[][] rho, double[][] cos, double[][] sin, ImageCartesian filter) {
-		cosNT	= Math.cos(-order * alpha);
-		sinNT	= Math.sin(-order * alpha);
-		int		nx		= rho.length;
-		int		ny		= rho[0].length;
-		double	real, imag;
-		double	b[][]	= getCoefficients(order);
-		for (int i = 0; i < nx; i++) {
-			for (int j = 0; j < ny; j++) {
-				getRadialValuePix(rho[i][j], b);
-				real	= cos[i][j] * pix_real - sin[i][j] * pix_imag;
-				imag	= cos[i][j] * pix_imag + sin[i][j] * pix_real;
-				filter.addPixel(i, j, cosNT * real - sinNT * imag, cosNT * imag + sinNT * real);
-			}
-		}
-		return filter;
-	}
-
-	protected double[][] computeCos(int order, double[][] theta, int nx, int ny) {
-		double[][] cos = new double[nx][ny];
-		for (int indX = 0; indX < nx; indX++) {
-			for (int indY = 0; indY < ny; indY++) {
-				cos[indX][indY] = Math.cos(order * theta[indX][indY]);
-			}
-		}
-		if (order == 0) {
-			cos[0][0] = 1;
-		}
-		else {
-			cos[0][0] = 0;
-		}
-		return cos;
+	protected ImageCartesian getCoreFilter(int order, double alpha, FrequencyGrid grid, ImageCartesian filter) {
+		return getCoreFilter(order, alpha, getCoefficients(order), grid, filter, Analysis.DEFAULT);
 	}
 
-	protected double[][] computeSin(int order, double[][] theta, int nx, int ny) {
-		double[][] sin = new double[nx][ny];
-		for (int indX = 0; indX < nx; indX++) {
-			for (int indY = 0; indY < ny; indY++) {
-				sin[indX][indY] = Math.sin(order * theta[indX][indY]);
+	/**
+	 * Adds to the filter the harmonic of the given order with the radial
+	 * profile b, steered at alpha. The radial frequencies of the grid are
+	 * scaled to the sampling of the template; at the scale s of the analysis,
+	 * the filter is s H(s w).
+	 * 
+	 * The filter is separable: for each row, the radial profile is evaluated
+	 * first, then multiplied by the angular phase e^{i n theta} of the grid
+	 * and by the steering e^{-i n alpha}. The second loop has no call and no
+	 * branch, it writes straight into the data of the filter.
+	 */
+	protected ImageCartesian getCoreFilter(int order, double alpha, double[][] b, FrequencyGrid grid, ImageCartesian filter, Analysis analysis) {
+		if (filter.nx != grid.nx || filter.ny != grid.ny)
+			throw new IllegalArgumentException("filter " + filter.nx + "x" + filter.ny + " on a grid " + grid.nx + "x" + grid.ny);
+		double		cosNT	= analysis.scale * Math.cos(-order * alpha);
+		double		sinNT	= analysis.scale * Math.sin(-order * alpha);
+		double		fact	= analysis.scale * ((double) templateSizeX / (double) templateSize) / ((double) grid.sizeX / (double) grid.nx);
+		double[]	rho		= grid.getRho();
+		double[][]	cs		= grid.getHarmonic(order);
+		double[]	cos		= cs[0];
+		double[]	sin		= cs[1];
+		double		sign	= order < 0 ? -1 : 1;
+		RadialTable	table	= analysis.radialTable ? getRadialTable(b, fact * Math.PI * Math.sqrt(2)) : null;
+		if (table != null && !acceptRadialTable(table))
+			table = null;
+		int			nx		= grid.nx;
+		int			ny		= grid.ny;
+		double[]	re		= filter.dataReel;
+		double[]	im		= filter.dataImag;
+		double[]	radRe	= new double[nx];
+		double[]	radIm	= new double[nx];
+		double		pix[]	= new double[2];
+		int			half	= nx / 2;
+		for (int j = 0; j < ny; j++) {
+			int row = nx * j;
+			for (int i = 0; i <= half; i++) {
+				if (table != null)
+					table.getValue(fact * rho[row + i], pix);
+				else
+					getRadialValuePix(fact * rho[row + i], b, pix);
+				radRe[i]	= pix[0];
+				radIm[i]	= pix[1];
 			}
-		}
-		sin[0][0] = 0;
-		return sin;
-	}
-
-	protected double[][] initRho(ImageCartesian image) {
-		double	fact	= ((double) templateSizeX / (double) templateSize) / ((double) image.sizeXSpace / (double) image.nx);
-		double	rho[][]	= new double[image.nx][image.ny];
-		for (int indX = 0; indX < image.nx; indX++) {
-			for (int indY = 0; indY < image.ny; indY++) {
-				rho[indX][indY] = fact * image.indexToRho(indX, indY);
+			// rho is even in x, the columns nx - i and i have the same profile
+			for (int i = half + 1; i < nx; i++) {
+				radRe[i]	= radRe[nx - i];
+				radIm[i]	= radIm[nx - i];
 			}
-		}
-		return rho;
-	}
-
-	protected double[][] initTheta(ImageCartesian image) {
-		double[][] theta = new double[image.nx][image.ny];
-		for (int indX = 0; indX < image.nx; indX++) {
-			for (int indY = 0; indY < image.ny; indY++) {
-				theta[indX][indY] = image.indexToTheta(indX, indY);
+			for (int i = 0; i < nx; i++) {
+				int		k		= row + i;
+				double	c		= cos[k];
+				double	s		= sign * sin[k];
+				double	real	= c * radRe[i] - s * radIm[i];
+				double	imag	= c * radIm[i] + s * radRe[i];
+				re[k]	+= cosNT * real - sinNT * imag;
+				im[k]	+= cosNT * imag + sinNT * real;
 			}
 		}
-		return theta;
+		return filter;
 	}
 
 }
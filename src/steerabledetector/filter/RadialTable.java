@@ -0,0 +1,118 @@
+/*
+ * Steer'n'Detect
+ * 
+ * Zsuzsanna Puspoki and Daniel Sage, Biomedical Imaging Group
+ * Ecole Polytechnique Federale de Lausanne (EPFL), Switzerland
+ * 
+ * Information: http://bigwww.epfl.ch/algorithms/steer_n_detect/
+ * 
+ * Conditions of use: You are free to use this software for research or
+ * educational purposes. In addition, we expect you to include adequate
+ * citations and acknowledgments whenever you present or publish results 
+ * that are based on it.
+ * 
+ * Reference: Z. Puspoki et al. submitted to Bioinformatics 2021.
+ */
+
+/*
+ * Copyright 2016-2021 Biomedical Imaging Group at the EPFL.
+ * 
+ * Steer'n'Detect is free software: you can redistribute it and/or modify it under 
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * Steer'n'Detect is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * Steer'n'Detect. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package steerabledetector.filter;
+
+/**
+ * Radial profile of one harmonic filter tabulated in rho.
+ * 
+ * The profile sum_k b_k B2(rho / deltaRho - k) is a quadratic polynomial
+ * on each interval ]m - 1/2, m + 1/2] of rho / deltaRho. The table stores
+ * the three coefficients of every interval, from the exact evaluation at
+ * three points, and the evaluation becomes one Horner step whatever the
+ * width of the spline. The table is checked against the exact evaluation
+ * at other points of every interval; getError() returns the largest
+ * difference. Outside of the table, the exact evaluation is used.
+ */
+public class RadialTable {
+
+	private final Method		method;
+	private final double[][]	b;
+	private final double		deltaRho;
+	private final int			nIntervals;
+	private final double[]		coef;
+	private double				error	= 0;
+
+	public RadialTable(Method method, double[][] b, double deltaRho, double rhoMax) {
+		this.method		= method;
+		this.b			= b;
+		this.deltaRho	= deltaRho;
+		nIntervals		= (int) Math.ceil(rhoMax / deltaRho + 0.5) + 1;
+		coef			= new double[6 * nIntervals];
+
+		double[]	fm	= new double[2];
+		double[]	f0	= new double[2];
+		double[]	fp	= new double[2];
+		for (int m = 0; m < nIntervals; m++) {
+			method.getRadialValuePix((m - 0.25) * deltaRho, b, fm);
+			method.getRadialValuePix(m * deltaRho, b, f0);
+			method.getRadialValuePix((m + 0.25) * deltaRho, b, fp);
+			for (int c = 0; c < 2; c++) {
+				coef[6 * m + 3 * c]		= f0[c];
+				coef[6 * m + 3 * c + 1]	= 2 * (fp[c] - fm[c]);
+				coef[6 * m + 3 * c + 2]	= 8 * (fp[c] + fm[c] - 2 * f0[c]);
+			}
+		}
+		validate();
+	}
+
+	public void getValue(double rho, double[] pix) {
+		double	u	= rho / deltaRho;
+		int		m	= (int) Math.ceil(u - 0.5);
+		if (m < 0 || m >= nIntervals) {
+			method.getRadialValuePix(rho, b, pix);
+			return;
+		}
+		double	t	= u - m;
+		int		i	= 6 * m;
+		pix[0]	= coef[i] + t * (coef[i + 1] + t * coef[i + 2]);
+		pix[1]	= coef[i + 3] + t * (coef[i + 4] + t * coef[i + 5]);
+	}
+
+	/**
+	 * Largest difference to the exact evaluation, relative to the largest
+	 * value of the profile.
+	 */
+	public double getError() {
+		return error;
+	}
+
+	private void validate() {
+		double[]	checks	= { -0.45, -0.1, 0.1, 0.4, 0.5 };
+		double[]	exact	= new double[2];
+		double[]	table	= new double[2];
+		double		max		= 0;
+		double		diff	= 0;
+		for (int m = 0; m < nIntervals; m++) {
+			for (double t : checks) {
+				double rho = (m + t) * deltaRho;
+				if (rho < 0)
+					continue;
+				method.getRadialValuePix(rho, b, exact);
+				getValue(rho, table);
+				max		= Math.max(max, Math.max(Math.abs(exact[0]), Math.abs(exact[1])));
+				diff	= Math.max(diff, Math.max(Math.abs(exact[0] - table[0]), Math.abs(exact[1] - table[1])));
+			}
+		}
+		error = max == 0 ? diff : diff / max;
+	}
+}
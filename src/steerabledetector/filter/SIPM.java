@@ -31,10 +31,15 @@
  */
 package steerabledetector.filter;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 
 import jama.Matrix;
+import steerabledetector.Instrumentation;
+import steerabledetector.Instrumentation.Probe;
 import steerabledetector.gui.components.HTMLPane;
 import steerabledetector.gui.components.ProgressionBar;
 import steerabledetector.image2d.ImageCartesian;
@@ -46,6 +51,10 @@ import steerabledetector.image2d.ImageCartesian.Domain;
 
 public class SIPM extends Method {
 
+	// bounds of a model read from a file
+	private static final int			MAX_PIXELS		= 1 << 24;
+	private static final int			MAX_ORDER		= 1000;
+
 	public final Spline					spline;
 
 	public final int					nSplineShift;
@@ -57,9 +66,6 @@ public class SIPM extends Method {
 	private ImageCartesian				filterGS;
 	public final double[][]				GInvA;
 
-	protected double[][]				cos_template	= null;
-	protected double[][]				sin_template	= null;
-
 	private Map<Integer, double[][]>	cN				= new HashMap<Integer, double[][]>();
 	private int							computedN;
 
@@ -97,18 +103,37 @@ public class SIPM extends Method {
 		d			= new double[2][nSplineShift];
 	}
 
+	/**
+	 * Model restored from a file: the Gram matrix is not inverted again and
+	 * the coefficients cN already fitted are reused.
+	 */
+	private SIPM(ProgressionBar progress, HTMLPane info, ImageCartesian residual, double sizeX, double sizeY, Spline sInput, double deltaRhoInput, double[][] GInvA, Map<Integer, double[][]> cN, int computedN) {
+
+		super(progress, info, residual, sizeX, sizeY);
+
+		spline			= sInput;
+		deltaRho		= deltaRhoInput;
+		nSplineShift	= (int) Math.ceil(2. * Math.PI / deltaRhoInput) + 4;
+		this.GInvA		= GInvA;
+		this.cN			= cN;
+		this.computedN	= computedN;
+		factorD			= 1.0 / (Math.PI * 2.0) * templateCurrent.dx * templateCurrent.dy;
+		filterGS		= new ImageCartesian(templateSize, templateSize, Domain.FOURIER);
+		d				= new double[2][nSplineShift];
+	}
+
 	public static SIPM getMethod(ProgressionBar progress, HTMLPane info, ImageCartesian templateSpaceInput, Spline s, ImageCartesian optimisationTemplate, int optimisationOrder) {
 
-		progress.progress("start FFT", 10);
-		ImageCartesian optitempFFT = optimisationTemplate.FFT();
-		progress.progress("end FFT", 20);
+		progress(progress, "start FFT", 10);
+		ImageCartesian optitempFFT = optimisationTemplate.isRealImage() ? optimisationTemplate.realFFT() : optimisationTemplate.FFT();
+		progress(progress, "end FFT", 20);
 
 		double	deltaRhoInitial	= Math.PI * 2. / templateSpaceInput.nx;
 		double	deltaRho		= deltaRhoInitial;
-		progress.progress("start SPIM", 30);
+		progress(progress, "start SPIM", 30);
 		SIPM	test	= new SIPM(progress, info, templateSpaceInput, s, deltaRho);
 		double	error	= optitempFFT.error(test.getDetector(0, 0, optitempFFT));
-		progress.progress("end SPIM", 40);
+		progress(progress, "end SPIM", 40);
 
 		double	step		= 0.1;
 		double	optimalDRho	= deltaRho;
@@ -118,7 +143,7 @@ public class SIPM extends Method {
 		double	chrono		= System.nanoTime();
 		do {
 			deltaRho = (1 + step) * deltaRho;
-			progress.progress("count " + count, 40 + count * 10);
+			progress(progress, "count " + count, 40 + count * 10);
 			test	= new SIPM(progress, info, templateSpaceInput, s, deltaRho);
 			error	= optitempFFT.error(test.getDetector(optimisationOrder, 0, optitempFFT));
 			double d = ((System.nanoTime() - chrono) * 10e-6);
@@ -142,6 +167,11 @@ public class SIPM extends Method {
 		return new SIPM(progress, info, templateSpaceInput, s, optimalDRho);
 	}
 
+	private static void progress(ProgressionBar progress, String msg, double value) {
+		if (progress != null)
+			progress.progress(msg, value);
+	}
+
 	@Override
 	public String getName() {
 		return "Spline(" + spline.getName() + ")";
@@ -154,9 +184,9 @@ public class SIPM extends Method {
 	}
 
 	@Override
-	protected void getRadialValuePix(double rho, double b[][]) {
-		pix_real	= 0.0;
-		pix_imag	= 0.0;
+	protected void getRadialValuePix(double rho, double b[][], double pix[]) {
+		pix[0]	= 0.0;
+		pix[1]	= 0.0;
 		int	min	= (int) Math.ceil(rho / deltaRho - spline.getWidth() / 2.);
 		int	max	= min + spline.getWidth();
 
@@ -174,13 +204,18 @@ public class SIPM extends Method {
 		}
 		for (int kval = min; kval < max; kval++) {
 			double a = spline.getValue(rho, kval, deltaRho);
-			pix_real	+= a * b[0][kval + nSplineShift / 2];
-			pix_imag	+= a * b[1][kval + nSplineShift / 2];
+			pix[0]	+= a * b[0][kval + nSplineShift / 2];
+			pix[1]	+= a * b[1][kval + nSplineShift / 2];
 		}
 	}
 
 	@Override
-	protected void assureCnComputed(int order, boolean forDetector) {
+	protected RadialTable getRadialTable(double[][] b, double rhoMax) {
+		return new RadialTable(this, b, deltaRho, rhoMax);
+	}
+
+	@Override
+	protected synchronized void assureCnComputed(int order, boolean forDetector, Instrumentation instrumentation) {
 
 		if (cN.containsKey(order) == false) {
 			int N = (order < 0 ? -order : order);
@@ -189,21 +224,99 @@ public class SIPM extends Method {
 				// SteerableFilter.updateProgress("computing
 				// cN",(int)Math.round((100.*computedN-100.*progInit)/((double)N)));
 				++computedN;
+				Probe probe = Instrumentation.start(instrumentation, "SIPM order " + computedN);
 				cN.put(computedN, ComputeCN(computedN));
-				getCoreFilter(computedN, 0., rho_template, cos_template, sin_template, filterGS);
+				getCoreFilter(computedN, 0., grid_template, filterGS);
 				templateCurrent.substract(filterGS);
 				filterGS.clearData();
 
 				if (computedN != 0) {
 					cN.put(-computedN, ComputeCN(-computedN));
-					getCoreFilter(-computedN, 0., rho_template, cos_template, sin_template, filterGS);
+					getCoreFilter(-computedN, 0., grid_template, filterGS);
 					templateCurrent.substract(filterGS);
 					filterGS.clearData();
 				}
+				Instrumentation.stop(probe);
 			}
 		}
 	}
 
+	public synchronized int getComputedOrder() {
+		return computedN;
+	}
+
+	/**
+	 * Writes the model: spline, deltaRho, inverse of the Gram matrix, the
+	 * coefficients cN fitted so far and the residual of the template, which
+	 * allows to fit higher orders after a reload.
+	 */
+	public synchronized void write(DataOutputStream out) throws IOException {
+		out.writeUTF(spline.getName());
+		out.writeInt(templateCurrent.nx);
+		out.writeInt(templateCurrent.ny);
+		out.writeDouble(templateSizeX);
+		out.writeDouble(templateSizeY);
+		out.writeDouble(deltaRho);
+		out.writeInt(nSplineShift);
+		for (int l = 0; l < nSplineShift; l++)
+			for (int m = 0; m < nSplineShift; m++)
+				out.writeDouble(GInvA[l][m]);
+		out.writeInt(computedN);
+		for (int n = -computedN; n <= computedN; n++) {
+			double[][] c = cN.get(n);
+			for (int k = 0; k < nSplineShift; k++) {
+				out.writeDouble(c[0][k]);
+				out.writeDouble(c[1][k]);
+			}
+		}
+		for (int k = 0; k < templateCurrent.dataReel.length; k++) {
+			out.writeDouble(templateCurrent.dataReel[k]);
+			out.writeDouble(templateCurrent.dataImag[k]);
+		}
+	}
+
+	public static SIPM read(ProgressionBar progress, HTMLPane info, DataInputStream in) throws IOException {
+		Spline s = new Spline();
+		String name = in.readUTF();
+		if (!name.equals(s.getName()))
+			throw new IOException("Unknown spline " + name);
+		int		nx				= in.readInt();
+		int		ny				= in.readInt();
+		double	sizeX			= in.readDouble();
+		double	sizeY			= in.readDouble();
+		double	deltaRho		= in.readDouble();
+		int		nSplineShift	= in.readInt();
+		// a corrupt or truncated file fails here, before a huge allocation
+		if (nx <= 0 || ny <= 0 || (long) nx * ny > MAX_PIXELS || !(deltaRho > 0))
+			throw new IOException("Inconsistent model");
+		if (nSplineShift != (int) Math.ceil(2. * Math.PI / deltaRho) + 4 || nSplineShift > 4 * nx + 4)
+			throw new IOException("Inconsistent model");
+		double[][] GInvA = new double[nSplineShift][nSplineShift];
+		for (int l = 0; l < nSplineShift; l++)
+			for (int m = 0; m < nSplineShift; m++)
+				GInvA[l][m] = in.readDouble();
+		int computedN = in.readInt();
+		if (computedN < 0 || computedN > MAX_ORDER)
+			throw new IOException("Inconsistent model");
+		Map<Integer, double[][]> cN = new HashMap<Integer, double[][]>();
+		for (int n = -computedN; n <= computedN; n++) {
+			double[][] c = new double[2][nSplineShift];
+			for (int k = 0; k < nSplineShift; k++) {
+				c[0][k]	= in.readDouble();
+				c[1][k]	= in.readDouble();
+			}
+			cN.put(n, c);
+		}
+		double[] re = new double[nx * ny];
+		double[] im = new double[nx * ny];
+		for (int k = 0; k < nx * ny; k++) {
+			re[k]	= in.readDouble();
+			im[k]	= in.readDouble();
+		}
+		ImageCartesian residual = new ImageCartesian(nx, ny, sizeX, sizeY, re, im, Domain.FOURIER, "template");
+		return new SIPM(progress, info, residual, sizeX, sizeY, s, deltaRho, GInvA, cN, computedN);
+	}
+
 	private int getKVal(int k) {
 		return k - nSplineShift / 2;
 	}
@@ -226,8 +339,11 @@ public class SIPM extends Method {
 
 	private void ComputeDcoeff(int n) {
 
-		cos_template	= computeCos(n, theta_template, templateCurrent.nx, templateCurrent.ny);
-		sin_template	= computeSin(n, theta_template, templateCurrent.nx, templateCurrent.ny);
+		double[]	rho		= grid_template.getRho();
+		double[][]	cs		= grid_template.getHarmonic(n);
+		double[]	cos		= cs[0];
+		double[]	sin		= cs[1];
+		double		sign	= n < 0 ? -1 : 1;
 
 		double tempSpline;
 		for (int k = 0; k < nSplineShift; k++) {
@@ -238,12 +354,13 @@ public class SIPM extends Method {
 		for (int indX = 0; indX < templateSize; indX++) {
 			for (int indY = 0; indY < templateSize; indY++) {
 				templateCurrent.getPixelFast(indX, indY, pix);
+				int k0 = indX + templateSize * indY;
 				for (int k = 0; k < nSplineShift; k++) {
-					tempSpline = spline.getValue(rho_template[indX][indY], getKVal(k), deltaRho) + spline.getValue(-rho_template[indX][indY], getKVal(k), deltaRho);
+					tempSpline = spline.getValue(rho[k0], getKVal(k), deltaRho) + spline.getValue(-rho[k0], getKVal(k), deltaRho);
 					if (tempSpline != 0) {
 						// sign inverse because minus in exponential : exp(- j n theta)
-						d[0][k]	+= tempSpline * (pix[0] * cos_template[indX][indY] + pix[1] * sin_template[indX][indY]);
-						d[1][k]	+= tempSpline * (pix[1] * cos_template[indX][indY] - pix[0] * sin_template[indX][indY]);
+						d[0][k]	+= tempSpline * (pix[0] * cos[k0] + sign * pix[1] * sin[k0]);
+						d[1][k]	+= tempSpline * (pix[1] * cos[k0] - sign * pix[0] * sin[k0]);
 					}
 				}
 			}
@@ -0,0 +1,232 @@
+/*
+ * Steer'n'Detect
+ * 
+ * Zsuzsanna Puspoki and Daniel Sage, Biomedical Imaging Group
+ * Ecole Polytechnique Federale de Lausanne (EPFL), Switzerland
+ * 
+ * Information: http://bigwww.epfl.ch/algorithms/steer_n_detect/
+ * 
+ * Conditions of use: You are free to use this software for research or
+ * educational purposes. In addition, we expect you to include adequate
+ * citations and acknowledgments whenever you present or publish results 
+ * that are based on it.
+ * 
+ * Reference: Z. Puspoki et al. submitted to Bioinformatics 2021.
+ */
+
+/*
+ * Copyright 2016-2021 Biomedical Imaging Group at the EPFL.
+ * 
+ * Steer'n'Detect is free software: you can redistribute it and/or modify it under 
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * Steer'n'Detect is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * Steer'n'Detect. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package steerabledetector.filter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import steerabledetector.Constants;
+import steerabledetector.detector.Parameters;
+import steerabledetector.gui.components.HTMLPane;
+import steerabledetector.gui.components.ProgressionBar;
+import steerabledetector.image2d.ImageCartesian;
+
+/**
+ * On-disk cache of the SIPM models, keyed by the SHA-256 of the template
+ * (geometry and pixels), the spline and the reference orientation.
+ * 
+ * A model file keeps everything of the fit (see SIPM.write), a model is
+ * then restored without the search of deltaRho, the inversion of the Gram
+ * matrix and the fit of the harmonics already computed. A file that cannot
+ * be read is ignored and the model is rebuilt. The cache is off until a
+ * directory is set (advanced setting or macro key modelcache).
+ */
+public class SIPMCache {
+
+	private static final int	MAGIC		= 0x534E444D;
+	private static final int	VERSION		= 1;
+
+	// off by default: the cache writes in the plugins directory
+	private static File			directory	= null;
+
+	/**
+	 * Turns the cache on in the directory of the plugins (Constants.models),
+	 * or off.
+	 */
+	public static synchronized void setEnabled(boolean enabled) {
+		setDirectory(enabled ? Constants.models : null);
+	}
+
+	public static synchronized void setDirectory(String path) {
+		directory = (path == null || path.equals("") ? null : new File(path));
+	}
+
+	public static synchronized File getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * Returns the model of the template with the harmonics fitted up to
+	 * nHarmonics, from the cache if possible; a new or extended model is
+	 * stored. Without directory, the model is always built.
+	 */
+	public static SIPM getMethod(ProgressionBar progress, HTMLPane info, ImageCartesian template, Spline spline, int nHarmonics, double referenceOrientation) {
+		File dir = getDirectory();
+		if (dir == null) {
+			SIPM model = SIPM.getMethod(progress, info, template, spline, template, 0);
+			model.getCN(nHarmonics);
+			return model;
+		}
+		String	key		= getKey(template, spline, referenceOrientation);
+		File	file	= new File(dir, key + ".sipm");
+		SIPM	model	= file.exists() ? load(progress, info, file, referenceOrientation) : null;
+		if (model != null) {
+			int computed = model.getComputedOrder();
+			model.getCN(nHarmonics);
+			if (model.getComputedOrder() > computed)
+				save(model, file, referenceOrientation);
+			if (info != null)
+				info.append("p", "Template model loaded from the cache " + key.substring(0, 12));
+			return model;
+		}
+		model = SIPM.getMethod(progress, info, template, spline, template, 0);
+		model.getCN(nHarmonics);
+		save(model, file, referenceOrientation);
+		return model;
+	}
+
+	public static String getKey(ImageCartesian template, Spline spline, double referenceOrientation) {
+		try {
+			MessageDigest	digest	= MessageDigest.getInstance("SHA-256");
+			byte[]			buffer	= new byte[8];
+			update(digest, buffer, VERSION);
+			digest.update(spline.getName().getBytes("UTF-8"));
+			update(digest, buffer, template.nx);
+			update(digest, buffer, template.ny);
+			update(digest, buffer, Double.doubleToLongBits(template.sizeXSpace));
+			update(digest, buffer, Double.doubleToLongBits(template.sizeYSpace));
+			update(digest, buffer, Double.doubleToLongBits(referenceOrientation));
+			for (int k = 0; k < template.dataReel.length; k++) {
+				update(digest, buffer, Double.doubleToLongBits(template.dataReel[k]));
+				update(digest, buffer, Double.doubleToLongBits(template.dataImag[k]));
+			}
+			StringBuilder key = new StringBuilder();
+			for (byte b : digest.digest())
+				key.append(String.format("%02x", b & 0xff));
+			return key.toString();
+		}
+		catch (NoSuchAlgorithmException ex) {
+			throw new IllegalStateException(ex);
+		}
+		catch (IOException ex) {
+			throw new IllegalStateException(ex);
+		}
+	}
+
+	private static void update(MessageDigest digest, byte[] buffer, long value) {
+		for (int i = 0; i < 8; i++)
+			buffer[i] = (byte) (value >>> (56 - 8 * i));
+		digest.update(buffer);
+	}
+
+	/**
+	 * Reads a model file of the cache, e.g. for a run without interface; the
+	 * reference orientation of the model is set in params. Returns null if
+	 * the file cannot be read.
+	 */
+	public static SIPM load(File file, Parameters params) {
+		double[]	orientation	= new double[1];
+		SIPM		model		= load(null, null, file, orientation);
+		if (model != null)
+			params.referenceOrientation = orientation[0];
+		return model;
+	}
+
+	private static SIPM load(ProgressionBar progress, HTMLPane info, File file, double referenceOrientation) {
+		double[]	orientation	= new double[1];
+		SIPM		model		= load(progress, info, file, orientation);
+		if (model != null && orientation[0] != referenceOrientation) {
+			System.out.println("Unable to use the model " + file + ": different reference orientation");
+			return null;
+		}
+		return model;
+	}
+
+	private static SIPM load(ProgressionBar progress, HTMLPane info, File file, double[] orientation) {
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			if (in.readInt() != MAGIC || in.readInt() != VERSION)
+				throw new IOException("Not a model file of this version");
+			orientation[0] = in.readDouble();
+			return SIPM.read(progress, info, in);
+		}
+		catch (IOException ex) {
+			System.out.println("Unable to read the model " + file + ": " + ex);
+			return null;
+		}
+		finally {
+			close(in);
+		}
+	}
+
+	/**
+	 * The file is written under a temporary name and renamed, a concurrent
+	 * reader never sees a partial model.
+	 */
+	private static void save(SIPM model, File file, double referenceOrientation) {
+		File				tmp	= new File(file.getParentFile(), file.getName() + "." + Thread.currentThread().getId() + ".tmp");
+		DataOutputStream	out	= null;
+		try {
+			file.getParentFile().mkdirs();
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeDouble(referenceOrientation);
+			model.write(out);
+			out.close();
+			out = null;
+			if (!tmp.renameTo(file)) {
+				file.delete();
+				if (!tmp.renameTo(file))
+					throw new IOException("Unable to rename " + tmp);
+			}
+		}
+		catch (IOException ex) {
+			System.out.println("Unable to store the model " + file + ": " + ex);
+			tmp.delete();
+		}
+		finally {
+			close(out);
+		}
+	}
+
+	private static void close(Closeable stream) {
+		if (stream == null)
+			return;
+		try {
+			stream.close();
+		}
+		catch (IOException ex) {
+		}
+	}
+}
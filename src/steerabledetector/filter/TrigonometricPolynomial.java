@@ -0,0 +1,231 @@
+/*
+ * Steer'n'Detect
+ * 
+ * Zsuzsanna Puspoki and Daniel Sage, Biomedical Imaging Group
+ * Ecole Polytechnique Federale de Lausanne (EPFL), Switzerland
+ * 
+ * Information: http://bigwww.epfl.ch/algorithms/steer_n_detect/
+ * 
+ * Conditions of use: You are free to use this software for research or
+ * educational purposes. In addition, we expect you to include adequate
+ * citations and acknowledgments whenever you present or publish results 
+ * that are based on it.
+ * 
+ * Reference: Z. Puspoki et al. submitted to Bioinformatics 2021.
+ */
+
+/*
+ * Copyright 2016-2021 Biomedical Imaging Group at the EPFL.
+ * 
+ * Steer'n'Detect is free software: you can redistribute it and/or modify it under 
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * Steer'n'Detect is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * Steer'n'Detect. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package steerabledetector.filter;
+
+/**
+ * Real trigonometric polynomial of degree N
+ * 
+ * f(alpha) = a[0] + sum_{m=1..N} a[m] cos(m alpha) + b[m] sin(m alpha)
+ * 
+ * built from the 2N+1 steered harmonic responses of one pixel. The maximum
+ * over an angular range is found by Newton iterations on the derivative,
+ * started from the best samples of a fixed grid of 4N angles. The cost does
+ * not depend on the requested angular accuracy.
+ * 
+ * An instance holds working buffers, it should be used by one thread only.
+ */
+public class TrigonometricPolynomial {
+
+	private final int		N;
+	private final double[]	a;
+	private final double[]	b;
+
+	private final double	angleMin;
+	private final double	angleMax;
+	private final boolean	periodic;
+	private final int		nseeds;
+	private final double	step;
+	private final double[]	seeds;
+	private final double[]	seedCos[];
+	private final double[]	seedSin[];
+	private final double[]	seedValues;
+
+	private final double[]	eval	= new double[3];
+	private double			maximum;
+
+	public TrigonometricPolynomial(int N, double angleMin, double angleMax) {
+		this.N			= N;
+		this.a			= new double[N + 1];
+		this.b			= new double[N + 1];
+		this.angleMin	= angleMin;
+		this.angleMax	= angleMax;
+		int m = Math.max(8, 4 * N);
+		periodic	= angleMax - angleMin >= 2.0 * Math.PI - 1e-9;
+		nseeds		= periodic ? m : m + 1;
+		step		= periodic ? 2.0 * Math.PI / m : (angleMax - angleMin) / m;
+		seeds		= new double[nseeds];
+		seedCos		= new double[nseeds][N + 1];
+		seedSin		= new double[nseeds][N + 1];
+		seedValues	= new double[nseeds];
+		for (int s = 0; s < nseeds; s++) {
+			seeds[s] = angleMin + s * step;
+			for (int n = 0; n <= N; n++) {
+				seedCos[s][n]	= Math.cos(n * seeds[s]);
+				seedSin[s][n]	= Math.sin(n * seeds[s]);
+			}
+		}
+	}
+
+	/**
+	 * Sets the coefficients from the responses of the harmonics -N..N, stored
+	 * at the index n+N. The contribution of the harmonic n at the angle alpha
+	 * is re[n] cos(n alpha) + im[n] sin(n alpha).
+	 */
+	public void setHarmonics(double re[], double im[]) {
+		a[0]	= re[N];
+		b[0]	= 0.0;
+		for (int n = 1; n <= N; n++) {
+			a[n]	= re[N + n] + re[N - n];
+			b[n]	= im[N + n] - im[N - n];
+		}
+	}
+
+	/**
+	 * Sets the coefficients from the responses of the folded harmonics 0..N,
+	 * stored at the index n, where the harmonic n already holds the
+	 * contribution of the pair n and -n.
+	 */
+	public void setFoldedHarmonics(double re[], double im[]) {
+		a[0]	= re[0];
+		b[0]	= 0.0;
+		for (int n = 1; n <= N; n++) {
+			a[n]	= re[n];
+			b[n]	= im[n];
+		}
+	}
+
+	public double value(double alpha) {
+		evaluate(alpha);
+		return eval[0];
+	}
+
+	/**
+	 * Returns the angle of the maximum in [angleMin, angleMax]; the value of
+	 * the maximum is given by getMaximum().
+	 * 
+	 * The true maximum is at most step/2 from a seed, and this seed is lower
+	 * than the maximum by at most step^2/8 max|f''|. Newton is started from
+	 * every seed within this bound of the best seed.
+	 */
+	public double maximize() {
+		int		first	= 0;
+		double	bound	= 0.0;
+		for (int n = 1; n <= N; n++)
+			bound += n * n * (Math.abs(a[n]) + Math.abs(b[n]));
+		bound *= step * step / 8.0;
+		for (int s = 0; s < nseeds; s++) {
+			double v = a[0];
+			for (int n = 1; n <= N; n++)
+				v += a[n] * seedCos[s][n] + b[n] * seedSin[s][n];
+			seedValues[s] = v;
+			if (v > seedValues[first])
+				first = s;
+		}
+		double	threshold	= seedValues[first] - bound;
+		double	best		= seeds[first];
+		double	max			= seedValues[first];
+		for (int s = 0; s < nseeds; s++) {
+			if (seedValues[s] < threshold)
+				continue;
+			double alpha = newton(seeds[s], seedValues[s]);
+			if (maximum > max) {
+				best	= alpha;
+				max		= maximum;
+			}
+		}
+		maximum = max;
+		return best;
+	}
+
+	public double getMaximum() {
+		return maximum;
+	}
+
+	private double newton(double alpha, double value) {
+		double	lo	= alpha - step;
+		double	hi	= alpha + step;
+		if (!periodic) {
+			lo	= Math.max(lo, angleMin);
+			hi	= Math.min(hi, angleMax);
+		}
+		double x = alpha;
+		evaluate(x);
+		double v = eval[0];
+		for (int iter = 0; iter < 30; iter++) {
+			double d1 = eval[1];
+			double d2 = eval[2];
+			double dx;
+			if (d2 < 0)
+				dx = -d1 / d2;
+			else if (d1 != 0)
+				dx = (d1 > 0 ? 0.25 : -0.25) * step;
+			else
+				break;
+			double xn = Math.min(hi, Math.max(lo, x + dx));
+			evaluate(xn);
+			while (eval[0] < v && Math.abs(xn - x) > 1e-12) {
+				xn = 0.5 * (x + xn);
+				evaluate(xn);
+			}
+			if (eval[0] < v)
+				break;
+			double moved = Math.abs(xn - x);
+			x	= xn;
+			v	= eval[0];
+			if (moved < 1e-10)
+				break;
+		}
+		if (v < value) {
+			maximum = value;
+			return alpha;
+		}
+		maximum = v;
+		return x;
+	}
+
+	/**
+	 * Value, first and second derivatives at alpha; cos(n alpha) and
+	 * sin(n alpha) are obtained by recurrence from cos(alpha) and sin(alpha).
+	 */
+	private void evaluate(double alpha) {
+		double	c1	= Math.cos(alpha);
+		double	s1	= Math.sin(alpha);
+		double	c	= 1.0;
+		double	s	= 0.0;
+		double	v	= a[0];
+		double	d1	= 0.0;
+		double	d2	= 0.0;
+		for (int n = 1; n <= N; n++) {
+			double cn = c * c1 - s * s1;
+			s	= s * c1 + c * s1;
+			c	= cn;
+			double	u	= a[n] * c + b[n] * s;
+			v	+= u;
+			d1	+= n * (b[n] * c - a[n] * s);
+			d2	-= n * n * u;
+		}
+		eval[0]	= v;
+		eval[1]	= d1;
+		eval[2]	= d2;
+	}
+}
@@ -37,10 +37,13 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 
 import javax.swing.JButton;
+import javax.swing.JCheckBox;
+import javax.swing.JComboBox;
 import javax.swing.JDialog;
 import javax.swing.JFrame;
 
 import ij.gui.GUI;
+import steerabledetector.detector.AngleEstimation;
 import steerabledetector.detector.Parameters;
 import steerabledetector.gui.components.GridPanel;
 import steerabledetector.gui.components.SpinnerDouble;
@@ -54,6 +57,25 @@ public class AdvancedDialog extends JDialog implements ActionListener {
 	private SpinnerDouble	spnOverlap		= new SpinnerDouble(0, -99999, 99999, 1);
 	private SpinnerInteger	spnMargin		= new SpinnerInteger(10, 0, 99999, 1);
 	private SpinnerDouble	spnQuantile		= new SpinnerDouble(100, 0, 100, 1);
+	private JComboBox<String>	cmbEstimation	= new JComboBox<String>(new String[] { "Grid", "Analytic" });
+	private JCheckBox		chkSymmetric	= new JCheckBox("Symmetric filter bank (harmonics n >= 0)");
+	private JCheckBox		chkSingle		= new JCheckBox("Single precision filter bank");
+	private JCheckBox		chkTiled		= new JCheckBox("Tiled");
+	private JCheckBox		chkStreaming	= new JCheckBox("Streaming by bands of rows");
+	private JCheckBox		chkRadial		= new JCheckBox("Radial look-up table");
+	private SpinnerInteger	spnTileMemory	= new SpinnerInteger(0, 0, 999999, 64);
+	private SpinnerInteger	spnFilterCache	= new SpinnerInteger(0, 0, 999999, 64);
+	private JCheckBox		chkStack		= new JCheckBox("Stack from");
+	private SpinnerInteger	spnFirstSlice	= new SpinnerInteger(1, 1, 999999, 1);
+	private SpinnerInteger	spnLastSlice	= new SpinnerInteger(0, 0, 999999, 1);
+	private SpinnerInteger	spnLocalMax		= new SpinnerInteger(1, 0, 999, 1);
+	private SpinnerDouble	spnConfidence	= new SpinnerDouble(0, 0, 1, 0.05);
+	private JCheckBox		chkRefine		= new JCheckBox("Sub-pixel position and angle");
+	private JCheckBox		chkFused		= new JCheckBox("Responses stored per pixel (fused)");
+	private SpinnerInteger	spnScales		= new SpinnerInteger(1, 1, 99, 1);
+	private SpinnerDouble	spnScaleMin		= new SpinnerDouble(0.5, 0.05, 20, 0.1);
+	private SpinnerDouble	spnScaleMax		= new SpinnerDouble(2, 0.05, 20, 0.1);
+	private JCheckBox		chkModelCache	= new JCheckBox("Keep the template models in the plugins directory");
 
 	private Parameters 		params;
 	
@@ -75,6 +97,41 @@ public class AdvancedDialog extends JDialog implements ActionListener {
 		pnParams.place(6, 0, "Delta angle");
 		pnParams.place(6, 1, spnDeltaAlpha);
 		pnParams.place(6, 2, "degrees");
+		pnParams.place(7, 0, "Angle estimation");
+		pnParams.place(7, 1, cmbEstimation);
+		pnParams.place(8, 0, 3, 1, chkSymmetric);
+		pnParams.place(9, 0, 3, 1, chkSingle);
+		pnParams.place(10, 0, chkTiled);
+		pnParams.place(10, 1, spnTileMemory);
+		pnParams.place(10, 2, "MB (0 auto)");
+		pnParams.place(11, 0, 3, 1, chkStreaming);
+		pnParams.place(12, 0, 3, 1, chkRadial);
+		pnParams.place(13, 0, "Filter cache");
+		pnParams.place(13, 1, spnFilterCache);
+		pnParams.place(13, 2, "MB (0 off)");
+		pnParams.place(14, 0, chkStack);
+		pnParams.place(14, 1, spnFirstSlice);
+		pnParams.place(14, 2, "slice");
+		pnParams.place(15, 0, "to");
+		pnParams.place(15, 1, spnLastSlice);
+		pnParams.place(15, 2, "slice (0 last)");
+		pnParams.place(16, 0, "Local max radius");
+		pnParams.place(16, 1, spnLocalMax);
+		pnParams.place(16, 2, "px (0 overlap/2)");
+		pnParams.place(17, 0, "Min confidence");
+		pnParams.place(17, 1, spnConfidence);
+		pnParams.place(18, 0, 3, 1, chkRefine);
+		pnParams.place(19, 0, 3, 1, chkFused);
+		pnParams.place(20, 0, "Scales");
+		pnParams.place(20, 1, spnScales);
+		pnParams.place(20, 2, "(1 template only)");
+		pnParams.place(21, 0, "Scale from");
+		pnParams.place(21, 1, spnScaleMin);
+		pnParams.place(21, 2, "x template");
+		pnParams.place(22, 0, "to");
+		pnParams.place(22, 1, spnScaleMax);
+		pnParams.place(22, 2, "x template");
+		pnParams.place(23, 0, 3, 1, chkModelCache);
 		//pnParams.place(7, 0, "Refine orientation on quantile");
 		//pnParams.place(7, 1, spnQuantile);
 		//pnParams.place(7, 2, "%");
@@ -83,6 +140,25 @@ public class AdvancedDialog extends JDialog implements ActionListener {
 		settings.record("spnMargin", spnMargin, "10");
 		settings.record("spnOverlap", spnOverlap, "0");
 		settings.record("spnQuantile", spnQuantile, "100");
+		settings.record("cmbEstimation", cmbEstimation, "Grid");
+		settings.record("chkSymmetric", chkSymmetric, false);
+		settings.record("chkSingle", chkSingle, false);
+		settings.record("chkTiled", chkTiled, false);
+		settings.record("chkStreaming", chkStreaming, false);
+		settings.record("chkRadial", chkRadial, false);
+		settings.record("spnTileMemory", spnTileMemory, "0");
+		settings.record("spnFilterCache", spnFilterCache, "0");
+		settings.record("chkStack", chkStack, false);
+		settings.record("spnFirstSlice", spnFirstSlice, "1");
+		settings.record("spnLastSlice", spnLastSlice, "0");
+		settings.record("spnLocalMax", spnLocalMax, "1");
+		settings.record("spnConfidence", spnConfidence, "0");
+		settings.record("chkRefine", chkRefine, false);
+		settings.record("chkFused", chkFused, false);
+		settings.record("spnScales", spnScales, "1");
+		settings.record("spnScaleMin", spnScaleMin, "0.5");
+		settings.record("spnScaleMax", spnScaleMax, "2");
+		settings.record("chkModelCache", chkModelCache, false);
 
 		bnClose.addActionListener(this);
 		getParameters();
@@ -108,12 +184,50 @@ public class AdvancedDialog extends JDialog implements ActionListener {
 		params.deltaAlpha = spnDeltaAlpha.get();
 		params.overlap = spnOverlap.get();
 		params.margin = spnMargin.get();
+		params.angleEstimation = (cmbEstimation.getSelectedIndex() == 1 ? AngleEstimation.ANALYTIC : AngleEstimation.GRID);
+		params.symmetric = chkSymmetric.isSelected();
+		params.singlePrecision = chkSingle.isSelected();
+		params.tiled = chkTiled.isSelected();
+		params.streaming = chkStreaming.isSelected();
+		params.radialTable = chkRadial.isSelected();
+		params.filterCache = spnFilterCache.get();
+		params.tileMemory = spnTileMemory.get();
+		params.stack = chkStack.isSelected();
+		params.firstSlice = spnFirstSlice.get();
+		params.lastSlice = spnLastSlice.get();
+		params.localMaxRadius = spnLocalMax.get();
+		params.minConfidence = spnConfidence.get();
+		params.refine = chkRefine.isSelected();
+		params.fused = chkFused.isSelected();
+		params.scales = spnScales.get();
+		params.scaleMin = spnScaleMin.get();
+		params.scaleMax = spnScaleMax.get();
+		params.modelCache = chkModelCache.isSelected();
 	}
 	
 	public void getParameters() {
 		spnDeltaAlpha.set(params.deltaAlpha);
 		spnOverlap.set(params.overlap);
 		spnMargin.set(params.margin);
+		cmbEstimation.setSelectedIndex(params.angleEstimation == AngleEstimation.ANALYTIC ? 1 : 0);
+		chkSymmetric.setSelected(params.symmetric);
+		chkSingle.setSelected(params.singlePrecision);
+		chkTiled.setSelected(params.tiled);
+		chkStreaming.setSelected(params.streaming);
+		chkRadial.setSelected(params.radialTable);
+		spnFilterCache.set(params.filterCache);
+		spnTileMemory.set(params.tileMemory);
+		chkStack.setSelected(params.stack);
+		spnFirstSlice.set(params.firstSlice);
+		spnLastSlice.set(params.lastSlice);
+		spnLocalMax.set(params.localMaxRadius);
+		spnConfidence.set(params.minConfidence);
+		chkRefine.setSelected(params.refine);
+		chkFused.setSelected(params.fused);
+		spnScales.set(params.scales);
+		spnScaleMin.set(params.scaleMin);
+		spnScaleMax.set(params.scaleMax);
+		chkModelCache.setSelected(params.modelCache);
 	}
 
 }
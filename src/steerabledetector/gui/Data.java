@@ -41,6 +41,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.List;
 import java.util.StringTokenizer;
 
 import ij.ImagePlus;
@@ -321,22 +322,40 @@ public class Data {
 	}
 
 	public void saveCVS(String filename) {
-		File file = new File(filename);
+		ArrayList<Detection> detections = new ArrayList<Detection>(detsSelected);
+		detections.addAll(detsManual);
+		saveCVS(new File(filename), detections, false);
+	}
+
+	/**
+	 * CSV of the detections, with the slice as first column if withSlice
+	 * (detections of a stack); returns false if the file cannot be written.
+	 */
+	public static boolean saveCVS(File file, List<Detection> detections, boolean withSlice) {
+		BufferedWriter buffer = null;
 		try {
 			String headers[] = Detection.toArrayStringHeader();
-			BufferedWriter buffer = new BufferedWriter(new FileWriter(file));
-			String s = "";
+			buffer = new BufferedWriter(new FileWriter(file));
+			String s = withSlice ? "Slice," : "";
 			for (int i = 0; i < headers.length; i++)
 				s += headers[i] + ",";
 			buffer.write(s + "\n");
-			for (Detection detection : detsSelected)
-				buffer.write(detection.toStringComma() + "\n");
-			for (Detection detection : detsManual)
-				buffer.write(detection.toStringComma() + "\n");
-			buffer.close();
+			for (Detection detection : detections)
+				buffer.write((withSlice ? detection.slice + "," : "") + detection.toStringComma() + "\n");
+			return true;
 		}
 		catch (IOException ex) {
 			System.out.println("" + ex);
+			return false;
+		}
+		finally {
+			try {
+				if (buffer != null)
+					buffer.close();
+			}
+			catch (IOException ex) {
+				System.out.println("" + ex);
+			}
 		}
 	}
 
@@ -36,6 +36,7 @@ import java.awt.CardLayout;
 import java.awt.Component;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.io.File;
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
 
@@ -54,9 +55,12 @@ import ij.ImagePlus;
 import ij.gui.GUI;
 import ij.plugin.frame.Recorder;
 import steerabledetector.Constants;
+import steerabledetector.Instrumentation;
+import steerabledetector.Instrumentation.Probe;
 import steerabledetector.detector.OutputMode;
 import steerabledetector.detector.Parameters;
 import steerabledetector.detector.RunningMode;
+import steerabledetector.detector.StackDetector;
 import steerabledetector.detector.SteerableDetector;
 import steerabledetector.filter.SIPM;
 import steerabledetector.gui.components.GridPanel;
@@ -72,6 +76,7 @@ public class DialogMain extends JDialog implements Runnable, ActionListener {
 	private Data					data;
 	private SIPM					model;
 	private SteerableDetector		detector;
+	private StackDetector			stackDetector;
 	private Parameters				params;
 
 	private JButton					bnStop				= new JButton("Stop");
@@ -131,6 +136,7 @@ public class DialogMain extends JDialog implements Runnable, ActionListener {
 		pnParams.place(0, 0, 2, 1, slider);
 		pnParams.place(1, 0, "Max. Detections");
 		pnParams.place(1, 1, spnNumberMax);
+		pnParams.place(2, 0, chkMultithread);
 
 		// Panel Mode
 		GridPanel pnMode = new GridPanel(false, 4);
@@ -210,7 +216,7 @@ public class DialogMain extends JDialog implements Runnable, ActionListener {
 			template.getRoi();
 			template.run();
 			run();
-			data.saveCVS(params.filename);
+			save();
 		}
 	}
 
@@ -275,10 +281,30 @@ public class DialogMain extends JDialog implements Runnable, ActionListener {
 		setParameters();
 		double chrono = System.nanoTime();
 		progress.reset("Detector ");
-
-		this.detector = new SteerableDetector(imp, model, params, progress, info);
-		this.detector.analysis();
+		Instrumentation instrumentation = params.profile.equals("") ? null : new Instrumentation();
+		params.instrumentation = instrumentation;
+
+		if (params.stack && imp.getStackSize() > 1) {
+			stackDetector = new StackDetector(imp, model, params, progress, info);
+			stackDetector.keepDetector(imp.getCurrentSlice());
+			stackDetector.run();
+			detector = stackDetector.getDetector();
+			if (detector == null) {
+				// current slice outside of the range
+				detector = new SteerableDetector(imp, model, params, progress, info);
+				detector.analysis();
+			}
+			else
+				detector.setData(stackDetector.getDetections(imp.getCurrentSlice()));
+			info.append("p", "" + stackDetector.getDetections().size() + " detections in the stack");
+		}
+		else {
+			stackDetector = null;
+			detector = new SteerableDetector(imp, model, params, progress, info);
+			detector.analysis();
+		}
 		data = detector.getData();
+		params.instrumentation = null;
 		if (stop) {
 			stop();
 			return;
@@ -299,7 +325,22 @@ public class DialogMain extends JDialog implements Runnable, ActionListener {
 		// if (outputMode == OutputMode.SELECTION)
 		new DialogSelection(imp, detector, data, params, info);
 
-		if (outputMode == OutputMode.SAVE)
+		if (outputMode == OutputMode.SAVE) {
+			Probe probe = Instrumentation.start(instrumentation, "CSV write");
+			save();
+			Instrumentation.stop(probe);
+		}
+		if (instrumentation != null) {
+			instrumentation.write(new File(params.profile));
+			for (String line : instrumentation.toLines())
+				info.append("p", line);
+		}
+	}
+
+	private void save() {
+		if (stackDetector != null)
+			Data.saveCVS(new File(params.filename), stackDetector.getDetections(), true);
+		else
 			data.saveCVS(params.filename);
 	}
 
@@ -307,6 +348,7 @@ public class DialogMain extends JDialog implements Runnable, ActionListener {
 		params.gamma = slider.getValue();
 		if (runningMode != RunningMode.MACRO) {
 			params.nDetections = spnNumberMax.get();
+			params.multithread = chkMultithread.isSelected();
 			dlgAdvanced.setParameters();
 		}
 		params.setInformation(imp, info);
@@ -337,6 +379,8 @@ public class DialogMain extends JDialog implements Runnable, ActionListener {
 	private void stop() {
 		stop = true;
 
+		if (stackDetector != null)
+			stackDetector.stop();
 		if (model != null)
 			model.stop();
 
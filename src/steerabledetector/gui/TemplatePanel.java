@@ -41,6 +41,7 @@ import ij.process.ImageConverter;
 import steerabledetector.Tools;
 import steerabledetector.detector.Parameters;
 import steerabledetector.filter.SIPM;
+import steerabledetector.filter.SIPMCache;
 import steerabledetector.filter.Spline;
 import steerabledetector.gui.components.GridPanel;
 import steerabledetector.gui.components.HTMLPane;
@@ -178,7 +179,8 @@ public class TemplatePanel extends JPanel implements ActionListener, Runnable {
 	}
 
 	private SIPM createSIPM(ProgressionBar progress, HTMLPane info, ImageCartesian templateSpaceInput) {
-		return SIPM.getMethod(progress, info, templateSpaceInput, new Spline(), templateSpaceInput, 0);
+		SIPMCache.setEnabled(params.modelCache);
+		return SIPMCache.getMethod(progress, info, templateSpaceInput, new Spline(), params.nHarmonics, params.referenceOrientation);
 	}
 
 	public void getRoi() {
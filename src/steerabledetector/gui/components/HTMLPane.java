@@ -80,7 +80,7 @@ public class HTMLPane extends JEditorPane {
 		setContentType("text/html; charset=ISO-8859-1");
 	}
 
-	public void append(String content) {
+	public synchronized void append(String content) {
 		html += content;
 		setText(header + html + footer);
 		if (dim != null) {
@@ -89,7 +89,7 @@ public class HTMLPane extends JEditorPane {
 		setCaretPosition(0);
 	}
 
-	public void append(String tag, String content) {
+	public synchronized void append(String tag, String content) {
 		html += "<" + tag + ">" + content + "</" + tag + ">";
 		setText(header + html + footer);
 		if (dim != null) {
@@ -39,6 +39,7 @@ import ij.io.FileSaver;
 import ij.process.FloatProcessor;
 import ij.process.ImageProcessor;
 import steerabledetector.fftacademic.AcademicFFT;
+import steerabledetector.fftacademic.FFTPlanCache;
 
 public class ImageCartesian {
 
@@ -84,7 +85,25 @@ public class ImageCartesian {
 		build(init.nx, init.ny, init.sizeXSpace, init.sizeYSpace, init.dataReel, init.dataImag, init.domain, init.name);
 	}
 
+	/**
+	 * The arrays are used as they are, they are not copied; a null array is
+	 * replaced by an array of zeros.
+	 */
+	ImageCartesian(int nx, int ny, double sizeX, double sizeY, double[] realValues, double[] imaginaryValues, Domain dom, String nameInput, boolean copy) {
+		if (copy) {
+			build(nx, ny, sizeX, sizeY, realValues, imaginaryValues, dom, nameInput);
+			return;
+		}
+		build(nx, ny, sizeX, sizeY, null, null, dom, nameInput, false);
+		dataReel	= realValues == null ? new double[nx * ny] : checkLength(realValues);
+		dataImag	= imaginaryValues == null ? new double[nx * ny] : checkLength(imaginaryValues);
+	}
+
 	private void build(int nx, int ny, double sizeX, double sizeY, double[] realValues, double[] imaginaryValues, Domain dom, String nameInput) {
+		build(nx, ny, sizeX, sizeY, realValues, imaginaryValues, dom, nameInput, true);
+	}
+
+	private void build(int nx, int ny, double sizeX, double sizeY, double[] realValues, double[] imaginaryValues, Domain dom, String nameInput, boolean allocate) {
 		this.name	= nameInput;
 		this.nx		= nx;
 		this.ny		= ny;
@@ -92,14 +111,10 @@ public class ImageCartesian {
 		sizeXSpace	= sizeX;
 		sizeYSpace	= sizeY;
 
-		domain		= dom;
-		if (dom == Domain.SPACE) {
-			dx	= sizeXSpace / nx;
-			dy	= sizeYSpace / ny;
-		}
-		else {
-			dx	= 2. * Math.PI / nx;
-			dy	= 2. * Math.PI / ny;
+		setDomain(dom);
+
+		if (!allocate) {
+			return;
 		}
 
 		if (realValues == null) {
@@ -107,10 +122,7 @@ public class ImageCartesian {
 			Arrays.fill(dataReel, 0f);
 		}
 		else {
-			if (realValues.length != nx * ny) {
-				throw new IllegalArgumentException("Dimension Mismatch between array and dimension");
-			}
-			dataReel = realValues.clone();
+			dataReel = checkLength(realValues).clone();
 		}
 
 		if (imaginaryValues == null) {
@@ -118,11 +130,26 @@ public class ImageCartesian {
 			Arrays.fill(dataImag, 0f);
 		}
 		else {
-			if (imaginaryValues.length != nx * ny) {
-				throw new IllegalArgumentException("Dimension Mismatch between array and dimension");
-			}
-			dataImag = imaginaryValues.clone();
+			dataImag = checkLength(imaginaryValues).clone();
+		}
+	}
 
+	private double[] checkLength(double[] values) {
+		if (values.length != nx * ny) {
+			throw new IllegalArgumentException("Dimension Mismatch between array and dimension");
+		}
+		return values;
+	}
+
+	private void setDomain(Domain dom) {
+		domain = dom;
+		if (dom == Domain.SPACE) {
+			dx	= sizeXSpace / nx;
+			dy	= sizeYSpace / ny;
+		}
+		else {
+			dx	= 2. * Math.PI / nx;
+			dy	= 2. * Math.PI / ny;
 		}
 	}
 
@@ -171,12 +198,39 @@ public class ImageCartesian {
 		}
 
 		ImageCartesian output = new ImageCartesian(fp.getWidth(), fp.getHeight(), fp.getWidth() / 100., fp.getHeight() / 100., tempDouble, null, ImageCartesian.Domain.SPACE,
-				imp.getTitle().split("\\.", 2)[0]);
+				imp.getTitle().split("\\.", 2)[0], false);
 		output.swapArray(output.dataReel, output.dataReel);
 
 		return output;
 	}
 
+	/**
+	 * Region of nx x ny pixels starting at (x0, y0) in an image of width x
+	 * height pixels, with the same layout as getImage(ImagePlus). Outside of
+	 * the image, the pixels are taken periodically, as seen by the FFT of the
+	 * full image.
+	 */
+	public static ImageCartesian getPeriodicCrop(float[] pixels, int width, int height, int x0, int y0, int nx, int ny, String name) {
+		return getPeriodicCrop(pixels, width, height, x0, y0, nx, ny, name, null);
+	}
+
+	/**
+	 * Same as getPeriodicCrop(), the arrays of the crop are taken from the
+	 * workspace, if not null.
+	 */
+	public static ImageCartesian getPeriodicCrop(float[] pixels, int width, int height, int x0, int y0, int nx, int ny, String name, Workspace workspace) {
+		ImageCartesian	output	= workspace == null ? new ImageCartesian(nx, ny, nx / 100., ny / 100., Domain.SPACE, name) : workspace.getImage(nx, ny, nx / 100., ny / 100., Domain.SPACE, name);
+		double[]		crop	= output.dataReel;
+		for (int j = 0; j < ny; j++) {
+			int y = Math.floorMod(y0 + j, height);
+			for (int i = 0; i < nx; i++) {
+				crop[i + nx * j] = pixels[Math.floorMod(x0 + i, width) + width * y];
+			}
+		}
+		output.swapArray(output.dataReel, output.dataReel);
+		return output;
+	}
+
 	public static ImageCartesian getCircularHarmonic(int nx, int ny, int order) {
 		return getCircularHarmonic(nx, ny, order, 0.);
 	}
@@ -218,40 +272,84 @@ public class ImageCartesian {
 	}
 
 	public ImageCartesian FFT() {
+		return new ImageCartesian(this).FFTInPlace(null);
+	}
 
-		if (domain == Domain.FOURIER) {
-			throw new UnsupportedOperationException("impossible to perform FFT on a frequency domain image");
-		}
-		verifyPairDimension();
-
-		AcademicFFT	academicFFT		= new AcademicFFT(nx, ny, 0, 0);
+	/**
+	 * FFT of a real image: the transform is computed on the real part only,
+	 * the imaginary part is ignored, and the negative frequencies are given
+	 * by the Hermitian symmetry. The output is the full spectrum, as FFT().
+	 */
+	public ImageCartesian realFFT() {
+		return new ImageCartesian(nx, ny, sizeXSpace, sizeYSpace, dataReel.clone(), null, domain, name, false).realFFTInPlace(null);
+	}
 
-		double[]	realPart		= dataReel.clone();
-		double[]	imaginaryPart	= dataImag.clone();
+	public ImageCartesian inverseFFT() {
+		return new ImageCartesian(this).inverseFFTInPlace(null);
+	}
 
-		academicFFT.directTransform(realPart, imaginaryPart, null, null, AcademicFFT.InputDataType.COMPLEXINPUT);
+	/**
+	 * FFT() computed in the arrays of this image, which becomes its spectrum.
+	 * The buffers of the transform are taken from the workspace, if not null.
+	 */
+	public ImageCartesian FFTInPlace(Workspace workspace) {
+		return transform(true, AcademicFFT.InputDataType.COMPLEXINPUT, workspace);
+	}
 
-		ImageCartesian output = new ImageCartesian(nx, ny, sizeXSpace, sizeYSpace, realPart, imaginaryPart, Domain.FOURIER, name + "-Fourier");
-		output.multiply(Math.sqrt(dx * dy));
-		return output;
+	/**
+	 * realFFT() computed in the arrays of this image; the imaginary part is
+	 * overwritten by the spectrum.
+	 */
+	public ImageCartesian realFFTInPlace(Workspace workspace) {
+		return transform(true, AcademicFFT.InputDataType.REALINPUT, workspace);
 	}
 
-	public ImageCartesian inverseFFT() {
+	/**
+	 * inverseFFT() computed in the arrays of this image.
+	 */
+	public ImageCartesian inverseFFTInPlace(Workspace workspace) {
+		return transform(false, null, workspace);
+	}
 
-		if (domain == Domain.SPACE) {
+	private ImageCartesian transform(boolean direct, AcademicFFT.InputDataType input, Workspace workspace) {
+		if (direct && domain == Domain.FOURIER) {
+			throw new UnsupportedOperationException("impossible to perform FFT on a frequency domain image");
+		}
+		if (!direct && domain == Domain.SPACE) {
 			throw new UnsupportedOperationException("impossible to perform the inverse FFT on a spatial domain image");
 		}
 		verifyPairDimension();
 
-		AcademicFFT	academicFFT		= new AcademicFFT(nx, ny, 0, 0);
-
-		double[]	realPart		= dataReel.clone();
-		double[]	imaginaryPart	= dataImag.clone();
+		AcademicFFT	academicFFT	= FFTPlanCache.acquire(nx, ny);
+		double[]	reBuffer	= workspace == null ? null : workspace.getDouble(nx * ny);
+		double[]	imBuffer	= workspace == null ? null : workspace.getDouble(nx * ny);
+
+		try {
+			if (direct)
+				academicFFT.directTransform(dataReel, dataImag, reBuffer, imBuffer, input);
+			else
+				academicFFT.inverseTransform(dataReel, dataImag, reBuffer, imBuffer);
+		}
+		finally {
+			FFTPlanCache.release(academicFFT);
+			if (workspace != null) {
+				workspace.release(reBuffer);
+				workspace.release(imBuffer);
+			}
+		}
 
-		academicFFT.inverseTransform(realPart, imaginaryPart, null, null);
-		ImageCartesian output = new ImageCartesian(nx, ny, sizeXSpace, sizeYSpace, realPart, imaginaryPart, Domain.SPACE, name + "-Space");
-		output.multiply(1 / Math.sqrt(output.dx * output.dy));
-		return output;
+		if (direct) {
+			double fact = Math.sqrt(dx * dy);
+			setDomain(Domain.FOURIER);
+			name = name + "-Fourier";
+			multiply(fact);
+		}
+		else {
+			setDomain(Domain.SPACE);
+			name = name + "-Space";
+			multiply(1 / Math.sqrt(dx * dy));
+		}
+		return this;
 	}
 
 	public void addOrientedFilter(double factR, double factI, ImageCartesian filter) {
@@ -275,10 +373,9 @@ public class ImageCartesian {
 		}
 		ImageCartesian output = new ImageCartesian(nxNew, nyNew, nxNew * dx, nyNew * dy, domain, name + "Cropped");
 
-		for (int indX = 0; indX < nxNew; indX++) {
-			for (int indY = 0; indY < nyNew; indY++) {
-				output.putPixel(indX, indY, getPixel(indX, indY));
-			}
+		for (int indY = 0; indY < nyNew; indY++) {
+			System.arraycopy(dataReel, nx * indY, output.dataReel, nxNew * indY, nxNew);
+			System.arraycopy(dataImag, nx * indY, output.dataImag, nxNew * indY, nxNew);
 		}
 
 		return output;
@@ -290,24 +387,21 @@ public class ImageCartesian {
 			throw new IllegalArgumentException("The crooped image must be smaller than the original image.");
 		}
 
-		swapArray(dataReel, dataReel);
-		swapArray(dataImag, dataImag);
-
 		ImageCartesian	output	= new ImageCartesian(nxNew, nyNew, nxNew * dx, nyNew * dy, domain, name + "-cropped");
 
 		int				cX		= (nx - nxNew) / 2;
 		int				cY		= (ny - nyNew) / 2;
 
-		for (int indX = 0; indX < output.nx; indX++) {
-			for (int indY = 0; indY < output.ny; indY++) {
-				output.putPixel(indX, indY, getPixel(indX + cX, indY + cY));
+		// the center of the swapped image, read and written through the
+		// indices of swapArray(), this image is not modified
+		for (int indY = 0; indY < output.ny; indY++) {
+			for (int indX = 0; indX < output.nx; indX++) {
+				int	in	= swappedIndex(indX + cX, indY + cY);
+				int	out	= output.swappedIndex(indX, indY);
+				output.dataReel[out]	= dataReel[in];
+				output.dataImag[out]	= dataImag[in];
 			}
 		}
-
-		swapArray(dataReel, dataReel);
-		swapArray(dataImag, dataImag);
-		output.swapArray(output.dataReel, output.dataReel);
-		output.swapArray(output.dataImag, output.dataImag);
 		return output;
 	}
 
@@ -339,9 +433,10 @@ public class ImageCartesian {
 
 		ImageCartesian output = new ImageCartesian(nx / 2, ny / 2, sizeXSpace, sizeYSpace, domain, name + "-downSampled");
 
-		for (int indX = 0; indX < output.nx; indX++) {
-			for (int indY = 0; indY < output.ny; indY++) {
-				output.putPixel(indX, indY, getPixel(indX * 2, indY * 2));
+		for (int indY = 0; indY < output.ny; indY++) {
+			for (int indX = 0; indX < output.nx; indX++) {
+				output.dataReel[indX + output.nx * indY]	= dataReel[indX * 2 + nx * indY * 2];
+				output.dataImag[indX + output.nx * indY]	= dataImag[indX * 2 + nx * indY * 2];
 			}
 		}
 		return output;
@@ -364,7 +459,6 @@ public class ImageCartesian {
 
 		ImageCartesian	output	= new ImageCartesian(nxNew, nyNew, nxNew * dx, nyNew * dy, domain, name + "-ZeroPadded");
 
-		double[]		val		= { 0., 0. };
 		int				indXN	= 0;
 		int				indYN	= 0;
 		for (int indX = 0; indX < output.nx; indX++) {
@@ -388,8 +482,8 @@ public class ImageCartesian {
 
 				// System.out.println(indX + " "+ indY+" / "+indXN + " "+ indYN );
 				if (indXN != -1 && indYN != -1) {
-					val = getPixel(indXN, indYN);
-					output.putPixel(indX, indY, val);
+					output.dataReel[indX + output.nx * indY]	= dataReel[indXN + nx * indYN];
+					output.dataImag[indX + output.nx * indY]	= dataImag[indXN + nx * indYN];
 				}
 			}
 		}
@@ -449,6 +543,13 @@ public class ImageCartesian {
 		return domain == Domain.FOURIER ? true : false;
 	}
 
+	public boolean isRealImage() {
+		for (int ind = 0; ind < nx * ny; ind++)
+			if (dataImag[ind] != 0.0)
+				return false;
+		return true;
+	}
+
 	public double[] getRealPixels() {
 		return dataReel.clone();
 	}
@@ -611,6 +712,21 @@ public class ImageCartesian {
 		}
 	}
 
+	/**
+	 * Index of the pixel (indX, indY) after swapArray(): the quadrants of
+	 * the even part of the image are exchanged, the last row and column of
+	 * an odd size stay in place.
+	 */
+	private int swappedIndex(int indX, int indY) {
+		int	hx	= nx / 2;
+		int	hy	= ny / 2;
+		if (indX < 2 * hx && indY < 2 * hy) {
+			indX	= indX < hx ? indX + hx : indX - hx;
+			indY	= indY < hy ? indY + hy : indY - hy;
+		}
+		return indX + nx * indY;
+	}
+
 	public double[] getRow(int indY, double[] data) {
 		double[] row = new double[nx];
 		for (int indX = 0; indX < nx; indX++) {
@@ -691,6 +807,12 @@ public class ImageCartesian {
 		return;
 	}
 
+	private void verifyTarget(ImageCartesian target) {
+		if (nx != target.nx || ny != target.ny) {
+			throw new IllegalArgumentException("Target size is different");
+		}
+	}
+
 	public double norm1Real() {
 		double output = 0.;
 
@@ -757,11 +879,22 @@ public class ImageCartesian {
 		return Math.sqrt(this.innerProduct(this)[0]);
 	}
 
+	/**
+	 * Relative error ||this - detector|| / ||this||, without copy of the
+	 * image.
+	 */
 	public double error(final ImageCartesian detector) {
-		double[]		norm2T	= innerProduct(this);
-		ImageCartesian	diff	= new ImageCartesian(this);
-		diff.substract(detector);
-		double[] norm2Diff = diff.innerProduct(diff);
+		verifyCompatibleImage(detector);
+		double[]	norm2T		= innerProduct(this);
+		double[]	norm2Diff	= { 0, 0 };
+		for (int ind = 0; ind < nx * ny; ind++) {
+			double	re	= dataReel[ind] - detector.dataReel[ind];
+			double	im	= dataImag[ind] - detector.dataImag[ind];
+			norm2Diff[0] += re * re + im * im;
+		}
+		norm2Diff[0] *= dx * dy;
+		if (domain == Domain.FOURIER)
+			norm2Diff[0] *= 1 / (Math.PI * Math.PI * 4);
 		if (norm2T[0] < 10e-20)
 			return Double.MAX_VALUE;
 		return Math.sqrt(norm2Diff[0] / norm2T[0]);
@@ -774,27 +907,66 @@ public class ImageCartesian {
 		return inProd / (normT * normD);
 	}
 
+	/**
+	 * Copies the data into target, an image of the same size, and gives it
+	 * the domain and the geometry of this image.
+	 */
+	public ImageCartesian copy(ImageCartesian target) {
+		verifyTarget(target);
+		System.arraycopy(dataReel, 0, target.dataReel, 0, nx * ny);
+		System.arraycopy(dataImag, 0, target.dataImag, 0, nx * ny);
+		target.sizeXSpace	= sizeXSpace;
+		target.sizeYSpace	= sizeYSpace;
+		target.setDomain(domain);
+		return target;
+	}
+
 	public void multiply(double fact) {
+		multiply(fact, this);
+	}
+
+	/**
+	 * The operations with a target write the result into target, an image of
+	 * the same size and domain, which can be this image; it is returned.
+	 */
+	public ImageCartesian multiply(double fact, ImageCartesian target) {
+		verifyTarget(target);
+		verifyCompatibleImage(target);
 		for (int ind = 0; ind < nx * ny; ind++) {
-			dataReel[ind]	*= fact;
-			dataImag[ind]	*= fact;
+			target.dataReel[ind]	= dataReel[ind] * fact;
+			target.dataImag[ind]	= dataImag[ind] * fact;
 		}
+		return target;
 	}
 
 	public void add(ImageCartesian second) {
+		add(second, this);
+	}
+
+	public ImageCartesian add(ImageCartesian second, ImageCartesian target) {
 		verifyCompatibleImage(second);
+		verifyTarget(target);
+		verifyCompatibleImage(target);
 		for (int ind = 0; ind < nx * ny; ind++) {
-			dataReel[ind]	+= second.dataReel[ind];
-			dataImag[ind]	+= second.dataImag[ind];
+			target.dataReel[ind]	= dataReel[ind] + second.dataReel[ind];
+			target.dataImag[ind]	= dataImag[ind] + second.dataImag[ind];
 		}
+		return target;
 	}
 
 	public void substract(ImageCartesian second) {
+		substract(second, this);
+	}
+
+	public ImageCartesian substract(ImageCartesian second, ImageCartesian target) {
 		verifyCompatibleImage(second);
+		verifyTarget(target);
+		verifyCompatibleImage(target);
 		for (int ind = 0; ind < nx * ny; ind++) {
-			dataReel[ind]	-= second.dataReel[ind];
-			dataImag[ind]	-= second.dataImag[ind];
+			target.dataReel[ind]	= dataReel[ind] - second.dataReel[ind];
+			target.dataImag[ind]	= dataImag[ind] - second.dataImag[ind];
 		}
+		return target;
 	}
 
 	public void substractReal(double value) {
@@ -817,15 +989,22 @@ public class ImageCartesian {
 	}
 
 	public void pointWiseMult(ImageCartesian factor) {
+		pointWiseMult(factor, this);
+	}
+
+	public ImageCartesian pointWiseMult(ImageCartesian factor, ImageCartesian target) {
 		verifyCompatibleImage(factor);
+		verifyTarget(target);
+		verifyCompatibleImage(target);
 		double	a, b;
 		int		n	= nx * ny;
 		for (int k = 0; k < n; k++) {
-			a			= dataReel[k];
-			b			= dataImag[k];
-			dataReel[k]	= a * factor.dataReel[k] - b * factor.dataImag[k];
-			dataImag[k]	= a * factor.dataImag[k] + b * factor.dataReel[k];
+			a					= dataReel[k];
+			b					= dataImag[k];
+			target.dataReel[k]	= a * factor.dataReel[k] - b * factor.dataImag[k];
+			target.dataImag[k]	= a * factor.dataImag[k] + b * factor.dataReel[k];
 		}
+		return target;
 	}
 
 	public void pointWiseMult2(ImageCartesian factor1, ImageCartesian factor2) {
@@ -845,7 +1024,13 @@ public class ImageCartesian {
 	}
 
 	public void pointWiseMultCC(ImageCartesian second) {
+		pointWiseMultCC(second, this);
+	}
+
+	public ImageCartesian pointWiseMultCC(ImageCartesian second, ImageCartesian target) {
 		verifyCompatibleImage(second);
+		verifyTarget(target);
+		verifyCompatibleImage(target);
 
 		double	tempReel;
 		double	tempImag;
@@ -859,9 +1044,10 @@ public class ImageCartesian {
 			tempSecondReel	= second.dataReel[ind];
 			tempSecondImag	= second.dataImag[ind];
 
-			dataReel[ind]	= tempReel * tempSecondReel + tempImag * tempSecondImag;
-			dataImag[ind]	= -tempReel * tempSecondImag + tempImag * tempSecondReel;	// sign ....
+			target.dataReel[ind]	= tempReel * tempSecondReel + tempImag * tempSecondImag;
+			target.dataImag[ind]	= -tempReel * tempSecondImag + tempImag * tempSecondReel;	// sign ....
 		}
+		return target;
 	}
 
 	public void updateABImage(ImageCartesian second, double angle) {
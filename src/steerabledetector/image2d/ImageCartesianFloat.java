@@ -0,0 +1,253 @@
+/*
+ * Steer'n'Detect
+ * 
+ * Zsuzsanna Puspoki and Daniel Sage, Biomedical Imaging Group
+ * Ecole Polytechnique Federale de Lausanne (EPFL), Switzerland
+ * 
+ * Information: http://bigwww.epfl.ch/algorithms/steer_n_detect/
+ * 
+ * Conditions of use: You are free to use this software for research or
+ * educational purposes. In addition, we expect you to include adequate
+ * citations and acknowledgments whenever you present or publish results 
+ * that are based on it.
+ * 
+ * Reference: Z. Puspoki et al. submitted to Bioinformatics 2021.
+ */
+
+/*
+ * Copyright 2016-2021 Biomedical Imaging Group at the EPFL.
+ * 
+ * Steer'n'Detect is free software: you can redistribute it and/or modify it under 
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * Steer'n'Detect is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * Steer'n'Detect. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package steerabledetector.image2d;
+
+import steerabledetector.fftacademic.AcademicFFT;
+import steerabledetector.fftacademic.FFTPlanCache;
+import steerabledetector.image2d.ImageCartesian.Domain;
+
+/**
+ * Single-precision counterpart of ImageCartesian for the large images of the
+ * filter bank: same layout (index indX + nx*indY, same domains and
+ * normalization of the FFT), data stored as float and transformed by the
+ * float kernels of AcademicFFT.
+ */
+public class ImageCartesianFloat {
+
+	public String	name;
+	public Domain	domain;
+
+	public double	sizeXSpace;
+	public double	sizeYSpace;
+
+	public double	dx;
+	public double	dy;
+
+	public int		nx;
+	public int		ny;
+
+	public float[]	dataReel;
+	public float[]	dataImag;
+
+	public ImageCartesianFloat(ImageCartesian init) {
+		this(init, null);
+	}
+
+	/**
+	 * Conversion of init, the arrays are taken from the workspace, if not
+	 * null.
+	 */
+	public ImageCartesianFloat(ImageCartesian init, Workspace workspace) {
+		int n = init.nx * init.ny;
+		float re[] = workspace == null ? new float[n] : workspace.getFloat(n);
+		float im[] = workspace == null ? new float[n] : workspace.getFloat(n);
+		for (int k = 0; k < n; k++) {
+			re[k]	= (float) init.dataReel[k];
+			im[k]	= (float) init.dataImag[k];
+		}
+		build(init.nx, init.ny, init.sizeXSpace, init.sizeYSpace, re, im, init.domain, init.name);
+	}
+
+	public ImageCartesianFloat(ImageCartesianFloat init) {
+		build(init.nx, init.ny, init.sizeXSpace, init.sizeYSpace, init.dataReel.clone(), init.dataImag.clone(), init.domain, init.name);
+	}
+
+	/**
+	 * The arrays are used as they are, they are not copied.
+	 */
+	ImageCartesianFloat(int nx, int ny, double sizeX, double sizeY, float[] realValues, float[] imaginaryValues, Domain dom, String nameInput) {
+		build(nx, ny, sizeX, sizeY, realValues, imaginaryValues, dom, nameInput);
+	}
+
+	private void build(int nx, int ny, double sizeX, double sizeY, float[] realValues, float[] imaginaryValues, Domain dom, String nameInput) {
+		if (realValues.length != nx * ny || imaginaryValues.length != nx * ny) {
+			throw new IllegalArgumentException("Dimension Mismatch between array and dimension");
+		}
+		this.name	= nameInput;
+		this.nx		= nx;
+		this.ny		= ny;
+		sizeXSpace	= sizeX;
+		sizeYSpace	= sizeY;
+		domain		= dom;
+		if (dom == Domain.SPACE) {
+			dx	= sizeXSpace / nx;
+			dy	= sizeYSpace / ny;
+		}
+		else {
+			dx	= 2. * Math.PI / nx;
+			dy	= 2. * Math.PI / ny;
+		}
+		dataReel	= realValues;
+		dataImag	= imaginaryValues;
+	}
+
+	/**
+	 * FFT of the real part, see ImageCartesian.realFFT().
+	 */
+	public ImageCartesianFloat realFFT() {
+		return new ImageCartesianFloat(nx, ny, sizeXSpace, sizeYSpace, dataReel.clone(), new float[nx * ny], domain, name).realFFTInPlace(null);
+	}
+
+	public ImageCartesianFloat inverseFFT() {
+		return new ImageCartesianFloat(this).inverseFFTInPlace(null);
+	}
+
+	/**
+	 * realFFT() computed in the arrays of this image, see
+	 * ImageCartesian.realFFTInPlace().
+	 */
+	public ImageCartesianFloat realFFTInPlace(Workspace workspace) {
+		return transform(true, workspace);
+	}
+
+	/**
+	 * inverseFFT() computed in the arrays of this image.
+	 */
+	public ImageCartesianFloat inverseFFTInPlace(Workspace workspace) {
+		return transform(false, workspace);
+	}
+
+	private ImageCartesianFloat transform(boolean direct, Workspace workspace) {
+		if (direct && domain == Domain.FOURIER) {
+			throw new UnsupportedOperationException("impossible to perform FFT on a frequency domain image");
+		}
+		if (!direct && domain == Domain.SPACE) {
+			throw new UnsupportedOperationException("impossible to perform the inverse FFT on a spatial domain image");
+		}
+		if (nx % 2 != 0 || ny % 2 != 0) {
+			throw new IllegalArgumentException("Image size is not a multiple of 2");
+		}
+
+		AcademicFFT	academicFFT	= FFTPlanCache.acquire(nx, ny);
+		float[]		reBuffer	= workspace == null ? null : workspace.getFloat(nx * ny);
+		float[]		imBuffer	= workspace == null ? null : workspace.getFloat(nx * ny);
+
+		try {
+			if (direct)
+				academicFFT.directTransform(dataReel, dataImag, reBuffer, imBuffer, AcademicFFT.InputDataType.REALINPUT);
+			else
+				academicFFT.inverseTransform(dataReel, dataImag, reBuffer, imBuffer);
+		}
+		finally {
+			FFTPlanCache.release(academicFFT);
+			if (workspace != null) {
+				workspace.release(reBuffer);
+				workspace.release(imBuffer);
+			}
+		}
+
+		if (direct) {
+			double fact = Math.sqrt(dx * dy);
+			build(nx, ny, sizeXSpace, sizeYSpace, dataReel, dataImag, Domain.FOURIER, name + "-Fourier");
+			multiply(fact);
+		}
+		else {
+			build(nx, ny, sizeXSpace, sizeYSpace, dataReel, dataImag, Domain.SPACE, name + "-Space");
+			multiply(1 / Math.sqrt(dx * dy));
+		}
+		return this;
+	}
+
+	/**
+	 * Copies the data into target, an image of the same size, and gives it
+	 * the domain and the geometry of this image.
+	 */
+	public ImageCartesianFloat copy(ImageCartesianFloat target) {
+		if (nx != target.nx || ny != target.ny) {
+			throw new IllegalArgumentException("Target size is different");
+		}
+		System.arraycopy(dataReel, 0, target.dataReel, 0, nx * ny);
+		System.arraycopy(dataImag, 0, target.dataImag, 0, nx * ny);
+		target.build(nx, ny, sizeXSpace, sizeYSpace, target.dataReel, target.dataImag, domain, target.name);
+		return target;
+	}
+
+	public void multiply(double fact) {
+		float f = (float) fact;
+		for (int ind = 0; ind < nx * ny; ind++) {
+			dataReel[ind]	*= f;
+			dataImag[ind]	*= f;
+		}
+	}
+
+	/**
+	 * Multiplies by a double-precision factor, the products are computed in
+	 * double and rounded once.
+	 */
+	public void pointWiseMult(ImageCartesian factor) {
+		verifyCompatibleImage(factor);
+		double	a, b;
+		int		n	= nx * ny;
+		for (int k = 0; k < n; k++) {
+			a			= dataReel[k];
+			b			= dataImag[k];
+			dataReel[k]	= (float) (a * factor.dataReel[k] - b * factor.dataImag[k]);
+			dataImag[k]	= (float) (a * factor.dataImag[k] + b * factor.dataReel[k]);
+		}
+	}
+
+	public void pointWiseMult2(ImageCartesian factor1, ImageCartesian factor2) {
+		verifyCompatibleImage(factor1);
+		verifyCompatibleImage(factor2);
+		double	a, b, ta, tb;
+		int		n	= nx * ny;
+		for (int k = 0; k < n; k++) {
+			a			= dataReel[k];
+			b			= dataImag[k];
+			ta			= a * factor1.dataReel[k] - b * factor1.dataImag[k];
+			tb			= a * factor1.dataImag[k] + b * factor1.dataReel[k];
+			dataReel[k]	= (float) (ta * factor2.dataReel[k] - tb * factor2.dataImag[k]);
+			dataImag[k]	= (float) (ta * factor2.dataImag[k] + tb * factor2.dataReel[k]);
+		}
+	}
+
+	public ImageCartesian toImageCartesian() {
+		int n = nx * ny;
+		double re[] = new double[n];
+		double im[] = new double[n];
+		for (int k = 0; k < n; k++) {
+			re[k]	= dataReel[k];
+			im[k]	= dataImag[k];
+		}
+		return new ImageCartesian(nx, ny, sizeXSpace, sizeYSpace, re, im, domain, name);
+	}
+
+	private void verifyCompatibleImage(ImageCartesian second) {
+		if (nx != second.nx || ny != second.ny) {
+			throw new IllegalArgumentException("Image size is different");
+		}
+		if (domain != second.domain) {
+			throw new IllegalArgumentException("Image domain is different");
+		}
+	}
+}
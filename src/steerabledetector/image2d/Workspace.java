@@ -0,0 +1,171 @@
+/*
+ * Steer'n'Detect
+ * 
+ * Zsuzsanna Puspoki and Daniel Sage, Biomedical Imaging Group
+ * Ecole Polytechnique Federale de Lausanne (EPFL), Switzerland
+ * 
+ * Information: http://bigwww.epfl.ch/algorithms/steer_n_detect/
+ * 
+ * Conditions of use: You are free to use this software for research or
+ * educational purposes. In addition, we expect you to include adequate
+ * citations and acknowledgments whenever you present or publish results 
+ * that are based on it.
+ * 
+ * Reference: Z. Puspoki et al. submitted to Bioinformatics 2021.
+ */
+
+/*
+ * Copyright 2016-2021 Biomedical Imaging Group at the EPFL.
+ * 
+ * Steer'n'Detect is free software: you can redistribute it and/or modify it under 
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * Steer'n'Detect is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * Steer'n'Detect. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package steerabledetector.image2d;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import steerabledetector.image2d.ImageCartesian.Domain;
+
+/**
+ * Pool of full-size arrays for one detection run: the buffers of the FFTs,
+ * the spectrum of the image, the products of the filter bank and, in the
+ * tiled mode, the tiles and their results are taken from the workspace and
+ * released to it after use, instead of being allocated for every transform.
+ * 
+ * The arrays are pooled by length. An array returned by getDouble() or
+ * getFloat() has an undefined content; the images of getImage() are set to
+ * zero. An array must not be used after its release. An instance is
+ * thread-safe; it keeps its arrays until clear() or until it is dropped at
+ * the end of the run.
+ */
+public class Workspace {
+
+	private final HashMap<Integer, ArrayDeque<double[]>>	doubles		= new HashMap<Integer, ArrayDeque<double[]>>();
+	private final HashMap<Integer, ArrayDeque<float[]>>		floats		= new HashMap<Integer, ArrayDeque<float[]>>();
+
+	private long											allocated	= 0;
+	private long											reused		= 0;
+	private long											bytes		= 0;
+
+	public synchronized double[] getDouble(int length) {
+		ArrayDeque<double[]> idle = doubles.get(length);
+		if (idle != null && !idle.isEmpty()) {
+			reused++;
+			return idle.pop();
+		}
+		allocated++;
+		bytes += 8L * length;
+		return new double[length];
+	}
+
+	public synchronized float[] getFloat(int length) {
+		ArrayDeque<float[]> idle = floats.get(length);
+		if (idle != null && !idle.isEmpty()) {
+			reused++;
+			return idle.pop();
+		}
+		allocated++;
+		bytes += 4L * length;
+		return new float[length];
+	}
+
+	public synchronized void release(double[] array) {
+		if (array == null)
+			return;
+		ArrayDeque<double[]> idle = doubles.get(array.length);
+		if (idle == null) {
+			idle = new ArrayDeque<double[]>();
+			doubles.put(array.length, idle);
+		}
+		idle.push(array);
+	}
+
+	public synchronized void release(float[] array) {
+		if (array == null)
+			return;
+		ArrayDeque<float[]> idle = floats.get(array.length);
+		if (idle == null) {
+			idle = new ArrayDeque<float[]>();
+			floats.put(array.length, idle);
+		}
+		idle.push(array);
+	}
+
+	/**
+	 * Image of zeros with arrays of the workspace.
+	 */
+	public ImageCartesian getImage(int nx, int ny, double sizeX, double sizeY, Domain domain, String name) {
+		double[]	re	= getDouble(nx * ny);
+		double[]	im	= getDouble(nx * ny);
+		Arrays.fill(re, 0);
+		Arrays.fill(im, 0);
+		return new ImageCartesian(nx, ny, sizeX, sizeY, re, im, domain, name, false);
+	}
+
+	/**
+	 * Copy of the image with arrays of the workspace.
+	 */
+	public ImageCartesian copy(ImageCartesian image) {
+		ImageCartesian output = new ImageCartesian(image.nx, image.ny, image.sizeXSpace, image.sizeYSpace, getDouble(image.nx * image.ny), getDouble(image.nx * image.ny), image.domain, image.name, false);
+		return image.copy(output);
+	}
+
+	/**
+	 * Copy of the image with arrays of the workspace.
+	 */
+	public ImageCartesianFloat copy(ImageCartesianFloat image) {
+		ImageCartesianFloat output = new ImageCartesianFloat(image.nx, image.ny, image.sizeXSpace, image.sizeYSpace, getFloat(image.nx * image.ny), getFloat(image.nx * image.ny), image.domain, image.name);
+		return image.copy(output);
+	}
+
+	/**
+	 * Returns the arrays of the image to the workspace; the image is emptied,
+	 * it cannot be used after.
+	 */
+	public void release(ImageCartesian image) {
+		if (image == null)
+			return;
+		release(image.dataReel);
+		release(image.dataImag);
+		image.dataReel	= null;
+		image.dataImag	= null;
+	}
+
+	public void release(ImageCartesianFloat image) {
+		if (image == null)
+			return;
+		release(image.dataReel);
+		release(image.dataImag);
+		image.dataReel	= null;
+		image.dataImag	= null;
+	}
+
+	public synchronized void clear() {
+		doubles.clear();
+		floats.clear();
+	}
+
+	public synchronized long getAllocated() {
+		return allocated;
+	}
+
+	public synchronized long getReused() {
+		return reused;
+	}
+
+	public synchronized String getStatistics() {
+		return "Workspace: " + allocated + " arrays allocated (" + (bytes / (1024 * 1024)) + " MB), " + reused + " reused";
+	}
+}